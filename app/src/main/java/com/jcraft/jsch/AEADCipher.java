@@ -0,0 +1,59 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+/**
+ * A Cipher that authenticates what it encrypts, replacing the MAC, as
+ * AES-GCM does in RFC 5647 and OpenSSH's aes*-gcm@openssh.com and
+ * chacha20-poly1305@openssh.com.
+ *
+ * For each packet, update() gets the sequence number, the 4 byte packet
+ * length goes through updateAAD() and the rest through doFinal().  Packets
+ * are padded so that what follows the length is a multiple of getIVSize(),
+ * which here as for every Cipher is the block size.  init() takes as much
+ * of the iv as it needs.
+ */
+public interface AEADCipher extends Cipher{
+  int getTagSize();
+  void update(int seq) throws Exception;
+  /**
+   * Authenticates the packet length.  It goes in the clear, except for
+   * ciphers that encrypt it as well (chacha20-poly1305), which en- or
+   * decrypt it in place, so that it can be read before the rest of the
+   * packet arrives.
+   */
+  void updateAAD(byte[] foo, int s1, int len) throws Exception;
+  /**
+   * Finishes a packet: encrypts len bytes of foo into bar, followed by the
+   * tag, or decrypts len bytes into bar and verifies the tag following them
+   * in foo.  The cipher is then ready for the next packet.
+   */
+  void doFinal(byte[] foo, int s1, int len, byte[] bar, int s2) throws Exception;
+}
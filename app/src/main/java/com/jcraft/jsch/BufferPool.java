@@ -0,0 +1,95 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+/**
+ * Size-classed free lists of byte arrays for the transport buffers, so a
+ * session settles on a few arrays instead of allocating one per large
+ * packet.  An array of length l is filed under class floor(log2(l)), a
+ * request for n bytes is served from class ceil(log2(n)), so whatever comes
+ * back is always big enough.
+ */
+final class BufferPool{
+  private static final int MIN_SHIFT=12;  // 4KB
+  private static final int MAX_SHIFT=19;  // 512KB > PACKET_MAX_SIZE+margin
+  private static final int DEPTH=2;       // arrays kept per class
+
+  private final byte[][][] free=new byte[MAX_SHIFT-MIN_SHIFT+1][DEPTH][];
+  private final int[] count=new int[MAX_SHIFT-MIN_SHIFT+1];
+
+  /**
+   * Returns an array of at least size bytes; contents are undefined.
+   */
+  synchronized byte[] get(int size){
+    int c=ceilShift(size);
+    if(c<=MAX_SHIFT){
+      for(int i=c; i<=MAX_SHIFT; i++){
+        int j=i-MIN_SHIFT;
+        if(count[j]>0){
+          byte[] foo=free[j][--count[j]];
+          free[j][count[j]]=null;
+          return foo;
+        }
+      }
+      return new byte[1<<c];
+    }
+    return new byte[size];
+  }
+
+  /**
+   * Hands an array back; it is dropped if it is too small, too big or the
+   * class is already full.
+   */
+  synchronized void put(byte[] foo){
+    if(foo==null || foo.length<(1<<MIN_SHIFT)) return;
+    int c=31-Integer.numberOfLeadingZeros(foo.length);
+    if(c>MAX_SHIFT) return;
+    int j=c-MIN_SHIFT;
+    if(count[j]<DEPTH){
+      free[j][count[j]++]=foo;
+    }
+  }
+
+  /**
+   * Replaces foo by an array of at least size bytes, keeping the first
+   * len bytes, and recycles foo.
+   */
+  byte[] grow(byte[] foo, int len, int size){
+    byte[] bar=get(size);
+    System.arraycopy(foo, 0, bar, 0, len);
+    put(foo);
+    return bar;
+  }
+
+  private static int ceilShift(int size){
+    if(size<=(1<<MIN_SHIFT)) return MIN_SHIFT;
+    return 32-Integer.numberOfLeadingZeros(size-1);
+  }
+}
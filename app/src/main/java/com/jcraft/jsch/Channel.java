@@ -29,8 +29,6 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jsch;
 
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
@@ -198,14 +196,13 @@ public abstract class Channel implements Runnable{
         Integer.parseInt(getSession().getConfig("max_input_buffer_size"));
     }
     catch(Exception e){}
-    PipedInputStream in =
-      new MyPipedInputStream(
+    ChannelPipe pipe=new ChannelPipe(
                              32*1024,  // this value should be customizable.
-                             max_input_buffer_size
+                             max_input_buffer_size,
+                             this
                              );
-    boolean resizable = 32*1024<max_input_buffer_size;
-    io.setOutputStream(new PassiveOutputStream(in, resizable), false);
-    return in;
+    io.setOutputStream(pipe.out, false);
+    return pipe.in;
   }
   public InputStream getExtInputStream() throws IOException {
     int max_input_buffer_size = 32*1024;
@@ -214,14 +211,13 @@ public abstract class Channel implements Runnable{
         Integer.parseInt(getSession().getConfig("max_input_buffer_size"));
     }
     catch(Exception e){}
-    PipedInputStream in =
-      new MyPipedInputStream(
+    ChannelPipe pipe=new ChannelPipe(
                              32*1024,  // this value should be customizable.
-                             max_input_buffer_size
+                             max_input_buffer_size,
+                             this
                              );
-    boolean resizable = 32*1024<max_input_buffer_size;
-    io.setExtOutputStream(new PassiveOutputStream(in, resizable), false);
-    return in;
+    io.setExtOutputStream(pipe.out, false);
+    return pipe.in;
   }
   public OutputStream getOutputStream() throws IOException {
 
@@ -325,99 +321,140 @@ public abstract class Channel implements Runnable{
     return out;
   }
 
-  class MyPipedInputStream extends PipedInputStream{
-    private int BUFFER_SIZE = 1024;
-    private int max_buffer_size = BUFFER_SIZE;
-    MyPipedInputStream() throws IOException{ super(); }
-    MyPipedInputStream(int size) throws IOException{
-      super();
-      buffer=new byte[size];
-      BUFFER_SIZE = size;
-      max_buffer_size = size;
+  void setLocalWindowSizeMax(int foo){ this.lwsize_max=foo; }
+  void setLocalWindowSize(int foo){ this.lwsize=foo; }
+
+  /*
+   * lwsize is what the peer may still send us.  Session.run() takes every
+   * data packet off it with useLocalWindow(), and the window is handed back
+   * with SSH_MSG_CHANNEL_WINDOW_ADJUST as the data is drained: at once if it
+   * was written to the application's own OutputStream, as it is read if it
+   * went into a ChannelPipe.  So data nobody reads stops the peer instead
+   * of piling up in memory.
+   *
+   * lwsize_max is tuned as in HPN-SSH: when the peer runs out of window
+   * although we keep up with it, the window is smaller than the
+   * bandwidth-delay product of the path, and is grown towards twice the
+   * measured drain rate times round trip time, at most doubling each time,
+   * up to the local_window_size_max config.
+   */
+  private final Object lwlock=new Object();
+  private int lwdrained=0;          // drained, not yet given back to the peer
+  private int lwcap=-1;             // lwsize_max limit, -1 until read
+  private boolean lwstarved=false;  // the peer ran out of window
+  private long lwadjust_time=0L;    // when a starved peer got more, ns
+  private long lwrtt=0L;            // smoothed round trip time, ns
+  private long lwrate=0L;           // smoothed drain rate, bytes/s
+  private long lwrate_start=0L;
+  private long lwrate_bytes=0L;
+
+  void useLocalWindow(int len, boolean ext){
+    int adjust=0;
+    synchronized(lwlock){
+      lwsize-=len;
+      long now=System.nanoTime();
+      if(lwadjust_time!=0L){
+        // the peer was waiting for our adjust, so it sent this in answer
+        long rtt=now-lwadjust_time;
+        lwrtt=(lwrtt==0L) ? rtt : (lwrtt*7+rtt)/8;
+        lwadjust_time=0L;
+      }
+      if(lwsize<lmpsize && !lwstarved){
+        lwstarved=true;
+        tuneLocalWindow();
+        adjust=takeAdjust(now);
+      }
     }
-    MyPipedInputStream(int size, int max_buffer_size) throws IOException{
-      this(size);
-      this.max_buffer_size = max_buffer_size;
+    sendWindowAdjust(adjust);
+    IO _io=io;
+    if(_io==null || ChannelPipe.drainedBy(ext ? _io.out_ext : _io.out)!=this){
+      drained(len);
+    }
+  }
+
+  void drained(int len){
+    int adjust;
+    synchronized(lwlock){
+      long now=System.nanoTime();
+      if(lwrate_start==0L) lwrate_start=now;
+      lwrate_bytes+=len;
+      long t=now-lwrate_start;
+      if(t>=100000000L){
+        long rate=lwrate_bytes*1000000000L/t;
+        lwrate=(lwrate==0L) ? rate : (lwrate*3+rate)/4;
+        lwrate_start=now;
+        lwrate_bytes=0L;
+      }
+      lwdrained+=len;
+      adjust=takeAdjust(now);
     }
-    MyPipedInputStream(PipedOutputStream out) throws IOException{ super(out); }
-    MyPipedInputStream(PipedOutputStream out, int size) throws IOException{
-      super(out);
-      buffer=new byte[size];
-      BUFFER_SIZE=size;
+    sendWindowAdjust(adjust);
+  }
+
+  /**
+   * @return the local window size currently offered to the peer at most
+   */
+  public int getLocalWindowSizeMax(){ return lwsize_max; }
+
+  // with lwlock held: what to give back to the peer now, if anything
+  private int takeAdjust(long now){
+    if(lwdrained<lwsize_max/2) return 0;
+    int adjust=lwdrained;
+    lwdrained=0;
+    lwsize+=adjust;
+    if(lwstarved){
+      lwadjust_time=now;
+      lwstarved=false;
     }
+    return adjust;
+  }
 
-    /*
-     * TODO: We should have our own Piped[I/O]Stream implementation.
-     * Before accepting data, JDK's PipedInputStream will check the existence of
-     * reader thread, and if it is not alive, the stream will be closed.
-     * That behavior may cause the problem if multiple threads make access to it.
-     */
-    public synchronized void updateReadSide() throws IOException {
-      if(available() != 0){ // not empty
-        return;
+  // with lwlock held: grows lwsize_max if the window holds the peer back
+  private void tuneLocalWindow(){
+    if(lwcap<0){
+      lwcap=0;
+      try{
+        lwcap=Integer.parseInt(getSession().getConfig("local_window_size_max"));
       }
-      in = 0;
-      out = 0;
-      buffer[in++] = 0;
-      read();
+      catch(Exception e){}
     }
+    if(lwsize_max>=lwcap) return;
 
-    private int freeSpace(){
-      int size = 0;
-      if(out < in) {
-        size = buffer.length-in;
-      }
-      else if(in < out){
-        if(in == -1) size = buffer.length;
-        else size = out - in;
-      }
-      return size;
-    } 
-    synchronized void checkSpace(int len) throws IOException {
-      int size = freeSpace();
-      if(size<len){
-        int datasize=buffer.length-size;
-        int foo = buffer.length;
-        while((foo - datasize) < len){
-          foo*=2;
-        }
+    // received but not read yet; if that is much, the reader is the limit
+    int unread=lwsize_max-lwsize-lwdrained;
+    if(unread>lwsize_max/2) return;
 
-        if(foo > max_buffer_size){
-          foo = max_buffer_size;
-        }
-        if((foo - datasize) < len) return;
+    long target=2L*lwsize_max;
+    if(lwrtt>0L && lwrate>0L){
+      long bdp=2L*lwrate*lwrtt/1000000000L;
+      if(bdp<target) target=bdp;
+    }
+    if(target>lwcap) target=lwcap;
+    if(target<=lwsize_max) return;
 
-        byte[] tmp = new byte[foo];
-        if(out < in) {
-          System.arraycopy(buffer, 0, tmp, 0, buffer.length);
-        }
-        else if(in < out){
-          if(in == -1) {
-          }
-          else {
-            System.arraycopy(buffer, 0, tmp, 0, in);
-            System.arraycopy(buffer, out, 
-                             tmp, tmp.length-(buffer.length-out),
-                             (buffer.length-out));
-            out = tmp.length-(buffer.length-out);
-          }
-        }
-        else if(in == out){
-          System.arraycopy(buffer, 0, tmp, 0, buffer.length);
-          in=buffer.length;
-        }
-        buffer=tmp;
-      }
-      else if(buffer.length == size && size > BUFFER_SIZE) { 
-        int  i = size/2;
-        if(i<BUFFER_SIZE) i = BUFFER_SIZE;
-        byte[] tmp = new byte[i];
-        buffer=tmp;
+    // the peer gets the difference with the next adjust
+    lwdrained+=(int)target-lwsize_max;
+    lwsize_max=(int)target;
+  }
+
+  private void sendWindowAdjust(int len){
+    if(len<=0) return;
+    try{
+      Buffer buf=new Buffer(100);
+      Packet packet=new Packet(buf);
+      packet.reset();
+      buf.putByte((byte)Session.SSH_MSG_CHANNEL_WINDOW_ADJUST);
+      buf.putInt(getRecipient());
+      buf.putInt(len);
+      synchronized(this){
+        if(!close)
+          getSession().write(packet);
       }
     }
+    catch(Exception e){
+    }
   }
-  void setLocalWindowSizeMax(int foo){ this.lwsize_max=foo; }
-  void setLocalWindowSize(int foo){ this.lwsize=foo; }
+
   void setLocalPacketSize(int foo){ this.lmpsize=foo; }
   synchronized void setRemoteWindowSize(long foo){ this.rwsize=foo; }
   synchronized void addRemoteWindowSize(long foo){ 
@@ -425,6 +462,24 @@ public abstract class Channel implements Runnable{
     if(notifyme>0)
       notifyAll();
   }
+
+  // time writers spent blocked in Session.write() for want of remote
+  // window space or because of a key exchange, in nanoseconds
+  private long stall_time=0L;
+  private int stall_count=0;
+  synchronized void addStallTime(long t){
+    stall_time+=t;
+    stall_count++;
+  }
+  /**
+   * @return milliseconds this channel's writers have spent waiting for
+   *         the remote window to open or for rekeying to finish
+   */
+  public synchronized long getStallTime(){ return stall_time/1000000L; }
+  /**
+   * @return number of times this channel's writers had to wait
+   */
+  public synchronized int getStallCount(){ return stall_count; }
   void setRemotePacketSize(int foo){ this.rmpsize=foo; }
 
   public void run(){
@@ -572,6 +627,7 @@ public abstract class Channel implements Runnable{
           return;
         }
         connected=false;
+        notifyAll();   // writers waiting for window space
       }
 
       close();
@@ -621,46 +677,6 @@ public abstract class Channel implements Runnable{
   }
 */
 
-  class PassiveInputStream extends MyPipedInputStream{
-    PipedOutputStream out;
-    PassiveInputStream(PipedOutputStream out, int size) throws IOException{
-      super(out, size);
-      this.out=out;
-    }
-    PassiveInputStream(PipedOutputStream out) throws IOException{
-      super(out);
-      this.out=out;
-    }
-    public void close() throws IOException{
-      if(out!=null){
-        this.out.close();
-      }
-      out=null;
-    }
-  }
-  class PassiveOutputStream extends PipedOutputStream{
-    private MyPipedInputStream _sink=null;
-    PassiveOutputStream(PipedInputStream in,
-                        boolean resizable_buffer) throws IOException{
-      super(in);
-      if(resizable_buffer && (in instanceof MyPipedInputStream)) {
-        this._sink=(MyPipedInputStream)in;
-      }
-    }
-    public void write(int b) throws IOException {
-      if(_sink != null) {
-        _sink.checkSpace(1);
-      }
-      super.write(b);
-    }
-    public void write(byte[] b, int off, int len) throws IOException {
-      if(_sink != null) {
-        _sink.checkSpace(len);
-      }
-      super.write(b, off, len); 
-    }
-  }
-
   void setExitStatus(int status){ exitstatus=status; }
   public int getExitStatus(){ return exitstatus; }
 
@@ -0,0 +1,260 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Single producer, single consumer byte ring used as a channel's input:
+ * the session thread writes what arrives for the channel into out, the
+ * application reads it from in.
+ *
+ * Each side waits on the pipe only while the ring is full or empty and is
+ * woken by the other side, there is no polling.  The bytes themselves are
+ * copied outside the lock, straight between the ring and the caller's
+ * array.  The ring starts at size bytes and doubles, as needed, up to
+ * max or the channel's local window size, whichever is larger; as the
+ * window is only reopened for what has been read, a well behaved peer never
+ * makes the writer wait.
+ */
+final class ChannelPipe{
+  private final Channel channel;   // told what was read, may be null
+  private final int max;
+  private byte[] buf;
+  private int head=0;              // index of the next byte to read
+  private int count=0;             // bytes readable from head on
+  private boolean eof=false;       // out was closed
+  private boolean closed=false;    // in was closed
+
+  final InputStream in=new Source();
+  final OutputStream out=new Sink();
+
+  ChannelPipe(int size, int max, Channel channel){
+    this.buf=new byte[size];
+    this.max=max;
+    this.channel=channel;
+  }
+
+  /**
+   * @return the channel whose window is reopened as what is written to o is
+   *         read, or null if o is not the write end of such a pipe.
+   */
+  static Channel drainedBy(OutputStream o){
+    if(o instanceof Sink){
+      return ((Sink)o).pipe().channel;
+    }
+    return null;
+  }
+
+  private int limit(){
+    int foo=max;
+    if(channel!=null && channel.lwsize_max>foo){
+      foo=channel.lwsize_max;
+    }
+    return foo;
+  }
+
+  // the ring is at least len bytes larger than count afterwards, if allowed
+  private void grow(int len){
+    int limit=limit();
+    int foo=buf.length;
+    while(foo-count<len && foo<limit){
+      foo*=2;
+    }
+    if(foo>limit) foo=limit;
+    if(foo<=buf.length) return;
+    byte[] tmp=new byte[foo];
+    int n=Math.min(count, buf.length-head);
+    System.arraycopy(buf, head, tmp, 0, n);
+    System.arraycopy(buf, 0, tmp, n, count-n);
+    buf=tmp;
+    head=0;
+  }
+
+  // with the lock held, waits for data; false on end of stream.
+  // closed comes first, a close from another thread always wins.
+  private boolean await() throws IOException{
+    while(true){
+      if(closed) throw new IOException("Pipe closed");
+      if(count>0) return true;
+      if(eof) return false;
+      try{ wait(); }
+      catch(InterruptedException e){
+        throw new InterruptedIOException();
+      }
+    }
+  }
+
+  // takes n bytes off the ring, the caller having already copied them.
+  // does nothing once closed, as close() has emptied the ring already.
+  private void consumed(int n){
+    synchronized(this){
+      if(closed) return;
+      head+=n;
+      if(head>=buf.length) head-=buf.length;
+      count-=n;
+      notifyAll();
+    }
+    if(channel!=null){
+      channel.drained(n);
+    }
+  }
+
+  class Source extends InputStream{
+    private byte[] b1=new byte[1];
+
+    public synchronized int read() throws IOException{
+      int n=read(b1, 0, 1);
+      return n==-1 ? -1 : b1[0]&0xff;
+    }
+
+    public synchronized int read(byte[] b, int off, int len) throws IOException{
+      if(len==0) return 0;
+      int total=0;
+      while(total<len){
+        byte[] foo;
+        int pos, n;
+        synchronized(ChannelPipe.this){
+          if(total==0){
+            if(!await()) return -1;
+          }
+          else if(closed || count==0){
+            break;
+          }
+          foo=buf;
+          pos=head;
+          n=Math.min(Math.min(count, foo.length-pos), len-total);
+        }
+        System.arraycopy(foo, pos, b, off+total, n);
+        consumed(n);
+        total+=n;
+      }
+      return total;
+    }
+
+    public synchronized long skip(long len) throws IOException{
+      if(len<=0) return 0;
+      int n;
+      synchronized(ChannelPipe.this){
+        if(!await()) return 0;
+        n=(int)Math.min(count, len);
+      }
+      consumed(n);
+      return n;
+    }
+
+    /**
+     * Writes everything up to end of stream to o, straight from the ring.
+     * @return number of bytes transferred
+     */
+    public synchronized long transferTo(OutputStream o) throws IOException{
+      long total=0;
+      while(true){
+        byte[] foo;
+        int pos, n;
+        synchronized(ChannelPipe.this){
+          if(!await()) return total;
+          foo=buf;
+          pos=head;
+          n=Math.min(count, foo.length-pos);
+        }
+        o.write(foo, pos, n);
+        consumed(n);
+        total+=n;
+      }
+    }
+
+    public int available() throws IOException{
+      synchronized(ChannelPipe.this){
+        return count;
+      }
+    }
+
+    public void close() throws IOException{
+      synchronized(ChannelPipe.this){
+        closed=true;
+        count=0;
+        ChannelPipe.this.notifyAll();
+      }
+    }
+  }
+
+  class Sink extends OutputStream{
+    private byte[] b1=new byte[1];
+
+    ChannelPipe pipe(){ return ChannelPipe.this; }
+
+    public synchronized void write(int b) throws IOException{
+      b1[0]=(byte)b;
+      write(b1, 0, 1);
+    }
+
+    public synchronized void write(byte[] b, int off, int len) throws IOException{
+      while(len>0){
+        byte[] foo;
+        int pos, n;
+        synchronized(ChannelPipe.this){
+          while(true){
+            if(closed) throw new IOException("Pipe closed");
+            if(eof) throw new IOException("Write end closed");
+            if(buf.length-count<len) grow(len);
+            if(count<buf.length) break;
+            try{ ChannelPipe.this.wait(); }
+            catch(InterruptedException e){
+              throw new InterruptedIOException();
+            }
+          }
+          foo=buf;
+          pos=head+count;
+          if(pos>=foo.length) pos-=foo.length;
+          n=Math.min(Math.min(foo.length-count, foo.length-pos), len);
+        }
+        System.arraycopy(b, off, foo, pos, n);
+        synchronized(ChannelPipe.this){
+          if(closed) throw new IOException("Pipe closed");
+          count+=n;
+          ChannelPipe.this.notifyAll();
+        }
+        off+=n;
+        len-=n;
+      }
+    }
+
+    public void close() throws IOException{
+      synchronized(ChannelPipe.this){
+        eof=true;
+        ChannelPipe.this.notifyAll();
+      }
+    }
+  }
+}
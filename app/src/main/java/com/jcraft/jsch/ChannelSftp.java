@@ -153,6 +153,17 @@ public class ChannelSftp extends ChannelSession{
   private boolean extension_statvfs = false;
   // private boolean extension_fstatvfs = false;
   private boolean extension_hardlink = false;
+  private boolean extension_limits = false;
+  private boolean extension_copy_data = false;
+
+  // copy() asks for this much at a time, this many requests at once
+  private static final long COPY_CHUNK=16*1024*1024;
+  private static final int COPY_OUTSTANDING=4;
+
+  // READ and WRITE data lengths the server takes, from limits@openssh.com;
+  // 0 if it did not tell, and requests are sized to one channel packet
+  private int limit_read=0;
+  private int limit_write=0;
 
 /*
 10. Changes from previous protocol versions
@@ -184,10 +195,16 @@ public class ChannelSftp extends ChannelSession{
 
   private RequestQueue rq = new RequestQueue(16);
 
+  // Uploads read the source on a thread of their own once reading one
+  // request's worth takes this long; handing buffers over costs more than
+  // it saves for sources that are faster.
+  private static final long READAHEAD_NANOS=250*1000L;
+
   /**
    * Specify how many requests may be sent at any one time.
    * Increasing this value may slightly improve file transfer speed but will
-   * increase memory usage.  The default is 16 requests.
+   * increase memory usage.  The default is 16 requests.  Uploads with
+   * put() only start with this many and adjust it to the link as they go.
    *
    * @param bulk_requests how many requests may be outstanding at any one time.
    */
@@ -222,10 +239,9 @@ public class ChannelSftp extends ChannelSession{
   public void start() throws JSchException{
     try{
 
-      PipedOutputStream pos=new PipedOutputStream();
-      io.setOutputStream(pos);
-      PipedInputStream pis=new MyPipedInputStream(pos, rmpsize);
-      io.setInputStream(pis);
+      ChannelPipe pipe=new ChannelPipe(rmpsize, rmpsize, this);
+      io.setOutputStream(pipe.out);
+      io.setInputStream(pipe.in);
 
       io_in=io.in;
 
@@ -306,6 +322,17 @@ public class ChannelSftp extends ChannelSession{
         extension_hardlink = true;
       } 
 
+      if(extensions.get("copy-data")!=null &&
+         extensions.get("copy-data").equals("1")){
+        extension_copy_data = true;
+      } 
+
+      if(extensions.get("limits@openssh.com")!=null &&
+         extensions.get("limits@openssh.com").equals("1")){
+        extension_limits = true;
+      } 
+      limits();
+
       lcwd=new File(".").getCanonicalPath();
     }
     catch(Exception e){
@@ -334,8 +361,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void cd(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
       path=isUnique(path);
 
@@ -386,8 +411,6 @@ public class ChannelSftp extends ChannelSession{
 		  SftpProgressMonitor monitor, int mode) throws SftpException{
 
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       src=localAbsolutePath(src);
       dst=remoteAbsolutePath(dst);
 
@@ -512,8 +535,6 @@ public class ChannelSftp extends ChannelSession{
   public void put(InputStream src, String dst, 
 		  SftpProgressMonitor monitor, int mode) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       dst=remoteAbsolutePath(dst);
 
       Vector v=glob_remote(dst);
@@ -556,8 +577,6 @@ public class ChannelSftp extends ChannelSession{
   public void _put(InputStream src, String dst, 
                    SftpProgressMonitor monitor, int mode) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       byte[] dstb=Util.str2byte(dst, fEncoding);
       long skip=0;
       if(mode==RESUME || mode==APPEND){
@@ -596,13 +615,14 @@ public class ChannelSftp extends ChannelSession{
       byte[] handle=buf.getString();         // handle
       byte[] data=null;
 
-      boolean dontcopy=true;
+      // A WRITE that fits into one channel packet is read straight into
+      // obuf; larger ones, as limits@openssh.com may allow, are read into
+      // data and go out in several packets.
+      boolean dontcopy=limit_write<=obuf.buffer.length
+                                   -(5+13+21+handle.length+Session.buffer_margin);
 
-      if(!dontcopy){  // This case will not work anymore.
-        data=new byte[obuf.buffer.length
-                      -(5+13+21+handle.length+Session.buffer_margin
-                        )
-        ];
+      if(!dontcopy){
+        data=new byte[limit_write];
       }
 
       long offset=0;
@@ -615,71 +635,149 @@ public class ChannelSftp extends ChannelSession{
       int _s=0;
       int _datalen=0;
 
-      if(!dontcopy){  // This case will not work anymore.
+      if(!dontcopy){
         _datalen=data.length;
       }
       else{
         data=obuf.buffer;
         _s=5+13+21+handle.length;
         _datalen=obuf.buffer.length-_s-Session.buffer_margin;
+        if(limit_write>0 && limit_write<_datalen){
+          _datalen=limit_write;
+        }
       }
 
-      int bulk_requests = rq.size();
+      // outstanding WRITEs adapt to the ack times, see WriteWindow
+      WriteWindow window=new WriteWindow(bulkRequests(_datalen));
+      int reqsize=5+13+21+handle.length+_datalen;
 
-      while(true){
-        int nread=0;
-        int count=0;
-        int s=_s;
-        int datalen=_datalen;
-
-        do{
-          nread=src.read(data, s, datalen);
-          if(nread>0){
-            s+=nread;
-            datalen-=nread;
-            count+=nread;
+      // Gather the WRITEs into as few socket writes as possible; flush
+      // whenever we are about to block on the source or on acks.
+      Session _session=getSession();
+      ReadAhead readahead=null;
+      Thread readthread=null;
+      byte[] taken=null;
+      byte[] obuffer=obuf.buffer;
+      int[] _count=new int[1];
+      _session.beginBatch();
+      try{
+        while(true){
+          int nread=0;
+          int count=0;
+          int s=_s;
+          int datalen=_datalen;
+
+          if(readahead!=null){
+            if(!readahead.ready()){
+              _session.flushBatch();
+            }
+            data=taken=readahead.take(_count);
+            if(data==null)break;
+            if(dontcopy){
+              obuf.buffer=data;
+            }
+            count=_count[0];
+          }
+          else{
+            if(src.available()<=0){
+              _session.flushBatch();
+            }
+            long start=System.nanoTime();
+            do{
+              nread=src.read(data, s, datalen);
+              if(nread>0){
+                s+=nread;
+                datalen-=nread;
+                count+=nread;
+              }
+            }
+            while(datalen>0 && nread>0); 
+            if(count<=0)break;
+
+            if(datalen==0 &&
+               System.nanoTime()-start>=READAHEAD_NANOS){
+              // a full request's worth that kept us waiting, so there is
+              // likely more; read it on another thread while this goes out
+              readahead=new ReadAhead(src, data.length, _s, _datalen);
+              readthread=new Thread(readahead);
+              readthread.setName("Sftp read-ahead "+_session.getHost());
+              if(_session.daemon_thread){
+                readthread.setDaemon(_session.daemon_thread);
+              }
+              readthread.start();
+            }
           }
-        }
-        while(datalen>0 && nread>0); 
-        if(count<=0)break;
 
-        int foo=count;
-        while(foo>0){
-          if((seq-1)==startid ||
-             ((seq-startid)-ackcount)>=bulk_requests){
-            while(((seq-startid)-ackcount)>=bulk_requests){
-              if(checkStatus(ackid, header)){
-                int _ackid = ackid[0];
-                if(startid>_ackid || _ackid>seq-1){
-                  if(_ackid==seq){
-                    System.err.println("ack error: startid="+startid+" seq="+seq+" _ackid="+_ackid);
-                  } 
-                  else{
-                    throw new SftpException(SSH_FX_FAILURE, "ack error: startid="+startid+" seq="+seq+" _ackid="+_ackid);
-                  }
+          int foo=count;
+          while(foo>0){
+            // wait for acks while the window is full, and pick up the ones
+            // already here anyway, so that their times are right
+            while(true){
+              int outstanding=(seq-startid)-ackcount;
+              if(outstanding<window.getLimit()){
+                if(outstanding==0 || io_in.available()<=0){
+                  break;
                 }
-                ackcount++;
               }
               else{
-                break;
+                _session.flushBatch();
               }
+              checkStatus(ackid, header);
+              int _ackid = ackid[0];
+              if(startid>_ackid || _ackid>seq-1){
+                if(_ackid==seq){
+                  System.err.println("ack error: startid="+startid+" seq="+seq+" _ackid="+_ackid);
+                } 
+                else{
+                  throw new SftpException(SSH_FX_FAILURE, "ack error: startid="+startid+" seq="+seq+" _ackid="+_ackid);
+                }
+              }
+              ackcount++;
+              window.acked(_ackid, System.nanoTime(),
+                           outstanding+(int)(rwsize/reqsize));
             }
-          }
-          if(dontcopy){
-            foo-=sendWRITE(handle, offset, data, 0, foo);
-            if(data!=obuf.buffer){
-              data=obuf.buffer;
-              _datalen=obuf.buffer.length-_s-Session.buffer_margin;
+            if(dontcopy){
+              foo-=sendWRITE(handle, offset, data, 0, foo);
+              window.sent(seq-1, System.nanoTime());
+              if(data!=obuf.buffer){
+                data=obuf.buffer;
+                _datalen=obuf.buffer.length-_s-Session.buffer_margin;
+                if(limit_write>0 && limit_write<_datalen){
+                  _datalen=limit_write;
+                }
+              }
+            }
+            else {
+              foo-=sendWRITE(handle, offset, data, _s, foo);
+              window.sent(seq-1, System.nanoTime());
             }
           }
-          else {
-            foo-=sendWRITE(handle, offset, data, _s, foo);
+          if(taken!=null){
+            readahead.give(dontcopy ? obuf.buffer : taken);
+          }
+          offset+=count;
+          if(monitor!=null && !monitor.count(count)){
+            break;
           }
         }
-        offset+=count;
-	if(monitor!=null && !monitor.count(count)){
-          break;
-	}
+      }
+      finally{
+        if(readahead!=null){
+          // the caller may close src as soon as we return, so wait
+          // until the read-ahead thread is done with it
+          readahead.stop();
+          readthread.interrupt();
+          boolean interrupted=false;
+          while(readthread.isAlive()){
+            try{ readthread.join(); }
+            catch(InterruptedException e){ interrupted=true; }
+          }
+          if(interrupted){
+            Thread.currentThread().interrupt();
+          }
+          obuf.buffer=obuffer;
+        }
+        _session.endBatch();
       }
       int _ackcount=seq-startid;
       while(_ackcount>ackcount){
@@ -722,8 +820,6 @@ public class ChannelSftp extends ChannelSession{
    */
   public OutputStream put(String dst, final SftpProgressMonitor monitor, final int mode, long offset) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       dst=remoteAbsolutePath(dst);
       dst=isUnique(dst);
 
@@ -898,8 +994,6 @@ public class ChannelSftp extends ChannelSession{
     boolean _dstExist = false;
     String _dst=null;
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       src=remoteAbsolutePath(src);
       dst=localAbsolutePath(dst);
 
@@ -1015,8 +1109,6 @@ public class ChannelSftp extends ChannelSession{
 		   SftpProgressMonitor monitor, int mode, long skip) throws SftpException{
 //System.err.println("get: "+src+", "+dst);
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       src=remoteAbsolutePath(src);
       src=isUnique(src);
 
@@ -1072,8 +1164,8 @@ public class ChannelSftp extends ChannelSession{
       rq.init();
       long request_offset=offset;
 
-      int request_len = buf.buffer.length-13;
-      if(server_version==0){ request_len=1024; }
+      int request_len = readLength();
+      int bulk_requests = bulkRequests(request_len);
 
       loop:
       while(true){
@@ -1166,7 +1258,7 @@ public class ChannelSftp extends ChannelSession{
           request_offset=rr.offset+rr.length;
         }
 
-        if(request_max < rq.size()){
+        if(request_max < bulk_requests){
           request_max++;
         }
       }
@@ -1187,6 +1279,131 @@ public class ChannelSftp extends ChannelSession{
   }
 
 
+  /**
+   * Reads an upload's source on its own thread, into two arrays laid out
+   * like obuf's with the data at start, so _put() can send one of them
+   * while the other fills.
+   */
+  private static class ReadAhead implements Runnable {
+    private final InputStream src;
+    private final int start;
+    private final int size;
+    private final byte[][] free=new byte[2][];
+    private int nfree;
+    private final byte[][] full=new byte[2][];
+    private final int[] fulllen=new int[2];
+    private int head;
+    private int nfull;
+    private boolean eof=false;
+    private boolean stop=false;
+    private IOException error=null;
+
+    ReadAhead(InputStream src, int length, int start, int size){
+      this.src=src;
+      this.start=start;
+      this.size=size;
+      for(nfree=0; nfree<free.length; nfree++){
+        free[nfree]=new byte[length];
+      }
+    }
+
+    public void run(){
+      try{
+        while(true){
+          byte[] b;
+          synchronized(this){
+            while(nfree==0 && !stop){
+              wait();
+            }
+            if(stop) return;
+            b=free[--nfree];
+          }
+          int count=0;
+          int nread=0;
+          do{
+            nread=src.read(b, start+count, size-count);
+            if(nread>0){
+              count+=nread;
+            }
+          }
+          while(count<size && nread>0 && !stopped());
+          synchronized(this){
+            if(stop) return;
+            if(count>0){
+              full[(head+nfull)%full.length]=b;
+              fulllen[(head+nfull)%full.length]=count;
+              nfull++;
+            }
+            if(nread<=0){
+              eof=true;
+            }
+            notifyAll();
+            if(eof) return;
+          }
+        }
+      }
+      catch(InterruptedException e){
+      }
+      catch(IOException e){
+        synchronized(this){
+          error=e;
+        }
+      }
+      finally{
+        synchronized(this){
+          eof=true;
+          notifyAll();
+        }
+      }
+    }
+
+    synchronized boolean ready(){
+      return nfull>0 || eof;
+    }
+
+    /**
+     * Returns the next array filled, with its length in len[0], or null at
+     * the end of the source.
+     */
+    synchronized byte[] take(int[] len) throws IOException{
+      while(nfull==0 && !eof){
+        try{ wait(); }
+        catch(InterruptedException e){
+          throw new java.io.InterruptedIOException(e.toString());
+        }
+      }
+      if(nfull==0){
+        if(error!=null) throw error;
+        return null;
+      }
+      byte[] b=full[head];
+      len[0]=fulllen[head];
+      full[head]=null;
+      head=(head+1)%full.length;
+      nfull--;
+      return b;
+    }
+
+    /**
+     * Hands back an array that was sent, or the one that replaced it in obuf.
+     */
+    synchronized void give(byte[] b){
+      if(nfree<free.length){
+        free[nfree++]=b;
+        notifyAll();
+      }
+    }
+
+    synchronized void stop(){
+      stop=true;
+      notifyAll();
+    }
+
+    private synchronized boolean stopped(){
+      return stop;
+    }
+  }
+
   private class RequestQueue {
     class OutOfOrderException extends Exception {
       long offset;
@@ -1308,8 +1525,6 @@ public class ChannelSftp extends ChannelSession{
   public InputStream get(String src, final SftpProgressMonitor monitor, final long skip) throws SftpException{
 
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       src=remoteAbsolutePath(src);
       src=isUnique(src);
 
@@ -1402,8 +1617,7 @@ public class ChannelSftp extends ChannelSession{
                 || true // working around slow transfer speed for
                         // some sftp servers including Titan FTP.
                ) {
-               int request_len = buf.buffer.length-13;
-               if(server_version==0){ request_len=1024; }
+               int request_len = readLength();
 
                while(rq.count() < request_max){
                  try{
@@ -1508,7 +1722,7 @@ public class ChannelSftp extends ChannelSession{
                  request_offset=rr.offset+rr.length;
                }
 
-               if(request_max < rq.size()){
+               if(request_max < bulkRequests(readLength())){
                  request_max++;
                }
 
@@ -1567,8 +1781,6 @@ public class ChannelSftp extends ChannelSession{
    public void ls(String path, LsEntrySelector selector) throws SftpException{
      //System.out.println("ls: "+path);
      try{
-       ((MyPipedInputStream)io_in).updateReadSide();
-
        path=remoteAbsolutePath(path);
        byte[] pattern=null;
        java.util.Vector v=new java.util.Vector();
@@ -1756,8 +1968,6 @@ public class ChannelSftp extends ChannelSession{
                                  "The remote sshd is too old to support symlink operation.");
        }
 
-       ((MyPipedInputStream)io_in).updateReadSide();
-
        path=remoteAbsolutePath(path);
 
        path=isUnique(path);
@@ -1806,8 +2016,6 @@ public class ChannelSftp extends ChannelSession{
      }
 
      try{
-       ((MyPipedInputStream)io_in).updateReadSide();
-
        String _oldpath=remoteAbsolutePath(oldpath);
        newpath=remoteAbsolutePath(newpath);
 
@@ -1858,8 +2066,6 @@ public class ChannelSftp extends ChannelSession{
      }
 
      try{
-       ((MyPipedInputStream)io_in).updateReadSide();
-
        String _oldpath=remoteAbsolutePath(oldpath);
        newpath=remoteAbsolutePath(newpath);
 
@@ -1903,6 +2109,118 @@ public class ChannelSftp extends ChannelSession{
      }
    }
 
+   /**
+    * Copies src to dst on the server itself with the copy-data extension,
+    * so the data never comes over the connection.  dst is created if need
+    * be.  The first skip bytes are taken to be in dst already, which
+    * resumes an interrupted copy.  The monitor is told after each chunk
+    * and stops the copy by returning false.
+    */
+   public void copy(String src, String dst, SftpProgressMonitor monitor, long skip) throws SftpException{
+     if(!extension_copy_data){
+       throw new SftpException(SSH_FX_OP_UNSUPPORTED, 
+                               "copy-data is not supported");
+     }
+
+     try{
+       src=remoteAbsolutePath(src);
+       dst=remoteAbsolutePath(dst);
+
+       src=isUnique(src);
+       if(isPattern(dst)){
+         throw new SftpException(SSH_FX_FAILURE, dst);
+       }
+       dst=Util.unquote(dst);
+
+       byte[] srcb=Util.str2byte(src, fEncoding);
+       byte[] dstb=Util.str2byte(dst, fEncoding);
+
+       long size=_stat(srcb).getSize();
+       if(monitor!=null){
+         monitor.init(SftpProgressMonitor.PUT, src, dst, size);
+         if(skip>0){
+           monitor.count(skip);
+         }
+       }
+
+       Header header=new Header();
+       byte[] rhandle=_open(srcb, SSH_FXF_READ, header);
+       byte[] whandle=null;
+       SftpException error=null;
+       try{
+         whandle=_open(dstb, SSH_FXF_WRITE|SSH_FXF_CREAT|(skip==0 ? SSH_FXF_TRUNC : 0), header);
+
+         // keep a few chunks going so the round trips overlap the copying;
+         // on a failure or a stop, collect what is outstanding and quit
+         long offset=skip;
+         long acked=skip;
+         int outstanding=0;
+         boolean stop=false;
+         while(true){
+           while(!stop && offset<size && outstanding<COPY_OUTSTANDING){
+             long length=Math.min(COPY_CHUNK, size-offset);
+             sendCOPYDATA(rhandle, offset, length, whandle, offset);
+             offset+=length;
+             outstanding++;
+           }
+           if(outstanding==0)break;
+
+           try{
+             checkStatus(null, header);
+           }
+           catch(SftpException e){
+             if(error==null) error=e;
+             stop=true;
+           }
+           outstanding--;
+
+           long length=Math.min(COPY_CHUNK, size-acked);
+           acked+=length;
+           if(monitor!=null && !stop && !monitor.count(length)){
+             stop=true;
+           }
+         }
+       }
+       finally{
+         if(whandle!=null){
+           _sendCLOSE(whandle, header);
+         }
+         _sendCLOSE(rhandle, header);
+       }
+       if(error!=null){
+         throw error;
+       }
+       if(monitor!=null){
+         monitor.end();
+       }
+     }
+     catch(Exception e){
+       if(e instanceof SftpException) throw (SftpException)e;
+       if(e instanceof Throwable)
+         throw new SftpException(SSH_FX_FAILURE, "", (Throwable)e);
+       throw new SftpException(SSH_FX_FAILURE, "");
+     }
+   }
+
+   private byte[] _open(byte[] path, int mode, Header header) throws Exception{
+     sendOPEN(path, mode);
+
+     header=header(buf, header);
+     int length=header.length;
+     int type=header.type;
+
+     fill(buf, length);
+
+     if(type!=SSH_FXP_STATUS && type!=SSH_FXP_HANDLE){
+       throw new SftpException(SSH_FX_FAILURE, "");
+     }
+     if(type==SSH_FXP_STATUS){
+       int i=buf.getInt();
+       throwStatusError(buf, i);
+     }
+     return buf.getString();         // handle
+   }
+
    public void rename(String oldpath, String newpath) throws SftpException{
      if(server_version<2){
        throw new SftpException(SSH_FX_OP_UNSUPPORTED, 
@@ -1910,8 +2228,6 @@ public class ChannelSftp extends ChannelSession{
      }
 
      try{
-       ((MyPipedInputStream)io_in).updateReadSide();
-
        oldpath=remoteAbsolutePath(oldpath);
        newpath=remoteAbsolutePath(newpath);
 
@@ -1958,8 +2274,6 @@ public class ChannelSftp extends ChannelSession{
   }
   public void rm(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2017,8 +2331,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void chgrp(int gid, String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2043,8 +2355,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void chown(int uid, String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2069,8 +2379,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void chmod(int permissions, String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2095,8 +2403,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void setMtime(String path, int mtime) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2121,8 +2427,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void rmdir(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2160,8 +2464,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void mkdir(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       sendMKDIR(Util.str2byte(path, fEncoding), null);
@@ -2191,8 +2493,6 @@ public class ChannelSftp extends ChannelSession{
 
   public SftpATTRS stat(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
       path=isUnique(path);
 
@@ -2244,8 +2544,6 @@ public class ChannelSftp extends ChannelSession{
 
   public SftpStatVFS statVFS(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
       path=isUnique(path);
 
@@ -2260,6 +2558,62 @@ public class ChannelSftp extends ChannelSession{
     //return null;
   }
 
+  /**
+   * Asks the server how long READs and WRITEs may be, with
+   * limits@openssh.com, and keeps to that but below MAX_MSG_LENGTH.
+   * OpenSSH takes 255KB, where one channel packet holds just under 32KB.
+   */
+  private void limits() throws Exception{
+    if(!extension_limits){
+      return;
+    }
+    sendLIMITS();
+
+    Header header=new Header();
+    header=header(buf, header);
+    int length=header.length;
+    int type=header.type;
+
+    fill(buf, length);
+
+    if(type != (SSH_FXP_EXTENDED_REPLY&0xff)){
+      return;
+    }
+    long max_packet=buf.getLong();
+    long max_read=buf.getLong();
+    long max_write=buf.getLong();
+    // max open handles follows, not used
+
+    // 0 means no limit; leave room for the request header
+    long max=MAX_MSG_LENGTH-1024;
+    if(max_packet>0 && max_packet-1024<max){
+      max=max_packet-1024;
+    }
+    if(max<=0){
+      return;
+    }
+    limit_read=(int)((max_read>0 && max_read<max) ? max_read : max);
+    limit_write=(int)((max_write>0 && max_write<max) ? max_write : max);
+  }
+
+  /**
+   * Data bytes asked for by one READ.
+   */
+  private int readLength(){
+    if(server_version==0){ return 1024; }
+    if(extension_limits && limit_read>0){ return limit_read; }
+    return buf.buffer.length-13;
+  }
+
+  /**
+   * How many requests of len data bytes may be outstanding: about as many
+   * bytes as rq.size() requests of one channel packet each.
+   */
+  private int bulkRequests(int len){
+    long foo=(long)rq.size()*(buf.buffer.length-13)/len;
+    return (int)Math.max(1, Math.min(rq.size(), foo));
+  }
+
   private SftpStatVFS _statVFS(byte[] path) throws SftpException{
     if(!extension_statvfs){
       throw new SftpException(SSH_FX_OP_UNSUPPORTED, 
@@ -2304,8 +2658,6 @@ public class ChannelSftp extends ChannelSession{
 
   public SftpATTRS lstat(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
       path=isUnique(path);
 
@@ -2381,8 +2733,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void setStat(String path, SftpATTRS attr) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2426,14 +2776,353 @@ public class ChannelSftp extends ChannelSession{
     }
   }
 
+  /**
+   * Returns a new Batch of requests on this channel.
+   */
+  public Batch batch(){
+    return new Batch();
+  }
+
+  /**
+   * Metadata requests on many paths sent without waiting for each reply,
+   * so a whole batch costs about one round trip instead of one per path.
+   * Add requests with stat(), lstat(), readlink(), rm(), rmdir(), mkdir()
+   * and setStat(), each returning the request's index; run() sends them
+   * and collects the replies, then getAttrs(), getLink() and
+   * getException() give the results by index.  Paths are used as given,
+   * without wildcard expansion.  Requests have no order among themselves,
+   * so don't put ones that depend on each other in the same batch.
+   */
+  public class Batch{
+    private static final int MAX_OUTSTANDING=256;
+
+    private Vector types=new Vector();
+    private Vector paths=new Vector();
+    private Vector attrs=new Vector();
+    private Object[] results;
+    private SftpException[] errors;
+
+    private Batch(){
+    }
+
+    public int stat(String path) throws SftpException{
+      return add(SSH_FXP_STAT, path, null);
+    }
+    public int lstat(String path) throws SftpException{
+      return add(SSH_FXP_LSTAT, path, null);
+    }
+    public int readlink(String path) throws SftpException{
+      return add(SSH_FXP_READLINK, path, null);
+    }
+    public int rm(String path) throws SftpException{
+      return add(SSH_FXP_REMOVE, path, null);
+    }
+    public int rmdir(String path) throws SftpException{
+      return add(SSH_FXP_RMDIR, path, null);
+    }
+    public int mkdir(String path) throws SftpException{
+      return add(SSH_FXP_MKDIR, path, null);
+    }
+    public int setStat(String path, SftpATTRS attr) throws SftpException{
+      return add(SSH_FXP_SETSTAT, path, attr);
+    }
+
+    public int size(){
+      return types.size();
+    }
+
+    /**
+     * Attributes from a stat() or lstat() request, null if it failed.
+     */
+    public SftpATTRS getAttrs(int i){
+      return (results[i] instanceof SftpATTRS) ? (SftpATTRS)results[i] : null;
+    }
+
+    /**
+     * Link target from a readlink() request, null if it failed.
+     */
+    public String getLink(int i){
+      return (results[i] instanceof String) ? (String)results[i] : null;
+    }
+
+    /**
+     * Why a request failed, null if it succeeded.
+     */
+    public SftpException getException(int i){
+      return errors[i];
+    }
+
+    private int add(byte type, String path, SftpATTRS attr) throws SftpException{
+      types.addElement(Byte.valueOf(type));
+      paths.addElement(Util.str2byte(remoteAbsolutePath(path), fEncoding));
+      attrs.addElement(attr);
+      return types.size()-1;
+    }
+
+    /**
+     * Send all the requests, keeping up to MAX_OUTSTANDING of them in
+     * flight, and wait for all the replies.  A request the server fails
+     * is recorded for getException(); only a broken channel throws.
+     */
+    public void run() throws SftpException{
+      int n=types.size();
+      results=new Object[n];
+      errors=new SftpException[n];
+
+      Session _session=null;
+      try{
+        _session=getSession();
+        _session.beginBatch();
+        Header header=new Header();
+        int first=seq;
+        int sent=0;
+        int received=0;
+        while(received<n){
+          while(sent<n && sent-received<MAX_OUTSTANDING){
+            send(sent++);
+          }
+
+          if(io_in.available()==0){
+            _session.flushBatch();
+          }
+          header=header(buf, header);
+          int length=header.length;
+          int type=header.type;
+          fill(buf, length);
+
+          int i=header.rid-first;
+          if(i<0 || i>=sent || results[i]!=null || errors[i]!=null){
+            throw new SftpException(SSH_FX_FAILURE, "unexpected reply id "+header.rid);
+          }
+          received++;
+
+          try{
+            if(type==SSH_FXP_STATUS){
+              int status=buf.getInt();
+              if(status!=SSH_FX_OK){
+                throwStatusError(buf, status);
+              }
+              results[i]=Boolean.TRUE;
+            }
+            else if(type==SSH_FXP_ATTRS){
+              results[i]=SftpATTRS.getATTR(buf);
+            }
+            else if(type==SSH_FXP_NAME){
+              int count=buf.getInt();
+              byte[] filename=null;
+              for(int j=0; j<count; j++){
+                filename=buf.getString();
+                if(server_version<=3){
+                  byte[] longname=buf.getString();
+                }
+                SftpATTRS.getATTR(buf);
+              }
+              results[i]=Util.byte2str(filename, fEncoding);
+            }
+            else{
+              throw new SftpException(SSH_FX_FAILURE, "");
+            }
+          }
+          catch(SftpException e){
+            errors[i]=e;
+          }
+        }
+      }
+      catch(Exception e){
+        if(e instanceof SftpException) throw (SftpException)e;
+        if(e instanceof Throwable)
+          throw new SftpException(SSH_FX_FAILURE, "", (Throwable)e);
+        throw new SftpException(SSH_FX_FAILURE, "");
+      }
+      finally{
+        if(_session!=null){
+          try{ _session.endBatch(); }
+          catch(IOException e){ }
+        }
+      }
+    }
+
+    private void send(int i) throws Exception{
+      byte type=((Byte)types.elementAt(i)).byteValue();
+      byte[] path=(byte[])paths.elementAt(i);
+      switch(type){
+      case SSH_FXP_SETSTAT:
+        sendSETSTAT(path, (SftpATTRS)attrs.elementAt(i));
+        break;
+      case SSH_FXP_MKDIR:
+        sendMKDIR(path, null);
+        break;
+      default:
+        sendPacketPath(type, path);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Opens path to read at any offset over a handle that stays open until
+   * the reader is closed, so moving around the file costs nothing until
+   * the next read.  Don't use the channel for anything else while reading.
+   */
+  public RandomReader openRandomReader(String path) throws SftpException{
+    try{
+      path=remoteAbsolutePath(path);
+      path=isUnique(path);
+      return new RandomReader(_open(Util.str2byte(path, fEncoding), SSH_FXF_READ, new Header()));
+    }
+    catch(Exception e){
+      if(e instanceof SftpException) throw (SftpException)e;
+      if(e instanceof Throwable)
+        throw new SftpException(SSH_FX_FAILURE, "", (Throwable)e);
+      throw new SftpException(SSH_FX_FAILURE, "");
+    }
+  }
+
+  public class RandomReader{
+    private static final int MAX_OUTSTANDING=64;
+
+    private byte[] handle;
+    private Header header=new Header();
+
+    private RandomReader(byte[] handle){
+      this.handle=handle;
+    }
+
+    /**
+     * Reads len bytes at offset into b.  Sends all the READ requests it
+     * takes without waiting in between, so it costs about one round trip
+     * however long it is.  Returns how many bytes were read, fewer than
+     * len only at end of file, -1 if offset is at or past the end.
+     */
+    public int read(long offset, byte[] b, int off, int len) throws SftpException{
+      if(handle==null){
+        throw new SftpException(SSH_FX_FAILURE, "reader is closed");
+      }
+      if(len<=0){
+        return 0;
+      }
+
+      int request_len=readLength();
+      int n=(len+request_len-1)/request_len;
+      int[] got=new int[n];
+      boolean[] eof=new boolean[n];
+      SftpException error=null;
+
+      Session _session=null;
+      try{
+        _session=getSession();
+        _session.beginBatch();
+        int first=seq;
+        int sent=0;
+        int received=0;
+        while(received<n){
+          while(sent<n && sent-received<MAX_OUTSTANDING){
+            int pos=sent*request_len;
+            sendREAD(handle, offset+pos, Math.min(request_len, len-pos));
+            sent++;
+          }
+
+          if(io_in.available()==0){
+            _session.flushBatch();
+          }
+          header=header(buf, header);
+          int length=header.length;
+          int type=header.type;
+
+          int i=header.rid-first;
+          if(i<0 || i>=sent){
+            throw new SftpException(SSH_FX_FAILURE, "unexpected reply id "+header.rid);
+          }
+          received++;
+
+          if(type==SSH_FXP_STATUS){
+            fill(buf, length);
+            int status=buf.getInt();
+            if(status==SSH_FX_EOF){
+              eof[i]=true;
+            }
+            else if(error==null){
+              try{ throwStatusError(buf, status); }
+              catch(SftpException e){ error=e; }
+            }
+            continue;
+          }
+          if(type!=SSH_FXP_DATA){
+            skip(length);
+            if(error==null) error=new SftpException(SSH_FX_FAILURE, "");
+            continue;
+          }
+
+          // the data goes straight into b where this request's piece of it belongs
+          buf.rewind();
+          fill(buf.buffer, 0, 4); length-=4;
+          int length_of_data=buf.getInt();
+          int pos=i*request_len;
+          int want=Math.min(request_len, len-pos);
+          int foo=Math.min(length_of_data, want);
+          fill(b, off+pos, foo);
+          skip(length-foo);
+          got[i]=foo;
+        }
+      }
+      catch(Exception e){
+        if(e instanceof SftpException) throw (SftpException)e;
+        if(e instanceof Throwable)
+          throw new SftpException(SSH_FX_FAILURE, "", (Throwable)e);
+        throw new SftpException(SSH_FX_FAILURE, "");
+      }
+      finally{
+        if(_session!=null){
+          try{ _session.endBatch(); }
+          catch(IOException e){ }
+        }
+      }
+      if(error!=null){
+        throw error;
+      }
+
+      // the pieces count up to the first short one.  short without eof
+      // just means the server sent less than asked, so ask for the rest.
+      int done=0;
+      for(int i=0; i<n; i++){
+        int want=Math.min(request_len, len-i*request_len);
+        done+=got[i];
+        if(got[i]<want){
+          if(!eof[i] && got[i]>0){
+            int rest=read(offset+done, b, off+done, len-done);
+            if(rest>0) done+=rest;
+          }
+          break;
+        }
+      }
+      return (done==0) ? -1 : done;
+    }
+
+    public void close() throws SftpException{
+      if(handle==null){
+        return;
+      }
+      try{
+        _sendCLOSE(handle, header);
+      }
+      catch(Exception e){
+        if(e instanceof SftpException) throw (SftpException)e;
+        if(e instanceof Throwable)
+          throw new SftpException(SSH_FX_FAILURE, "", (Throwable)e);
+        throw new SftpException(SSH_FX_FAILURE, "");
+      }
+      finally{
+        handle=null;
+      }
+    }
+  }
+
   public String pwd() throws SftpException{ return getCwd(); }
   public String lpwd(){ return lcwd; }
   public String version(){ return version; }
   public String getHome() throws SftpException {
     if(home==null){
       try{
-        ((MyPipedInputStream)io_in).updateReadSide();
-
         byte[] _home=_realpath("");
         home=Util.byte2str(_home, fEncoding);
       }
@@ -2545,6 +3234,15 @@ public class ChannelSftp extends ChannelSession{
   private void sendSYMLINK(byte[] p1, byte[] p2) throws Exception{
     sendPacketPath(SSH_FXP_SYMLINK, p1, p2);
   }
+  private void sendLIMITS() throws Exception{
+    packet.reset();
+    byte[] name=Util.str2byte("limits@openssh.com");
+    int len=9+name.length;
+    putHEAD(SSH_FXP_EXTENDED, len);
+    buf.putInt(seq++);
+    buf.putString(name);
+    getSession().write(packet, this, len+4);
+  }
   private void sendHARDLINK(byte[] p1, byte[] p2) throws Exception{
     sendPacketPath((byte)0, p1, p2, "hardlink@openssh.com");
   }
@@ -2561,6 +3259,21 @@ public class ChannelSftp extends ChannelSession{
     sendPacketPath(SSH_FXP_RENAME, p1, p2,
                    extension_posix_rename ? "posix-rename@openssh.com" : null);
   }
+  private void sendCOPYDATA(byte[] rhandle, long roffset, long length,
+                           byte[] whandle, long woffset) throws Exception{
+    byte[] name=Util.str2byte("copy-data");
+    int len=9+name.length+4+rhandle.length+8+8+4+whandle.length+8;
+    packet.reset();
+    putHEAD(SSH_FXP_EXTENDED, len);
+    buf.putInt(seq++);
+    buf.putString(name);
+    buf.putString(rhandle);          // read-from-handle
+    buf.putLong(roffset);            // read-from-offset
+    buf.putLong(length);             // read-data-length
+    buf.putString(whandle);          // write-to-handle
+    buf.putLong(woffset);            // write-to-offset
+    getSession().write(packet, this, len+4);
+  }
   private void sendCLOSE(byte[] path) throws Exception{
     sendPacketPath(SSH_FXP_CLOSE, path);
   }
@@ -2625,8 +3338,15 @@ public class ChannelSftp extends ChannelSession{
 
   private int sendWRITE(byte[] handle, long offset, 
                         byte[] data, int start, int length) throws Exception{
-    int _length=length;
     opacket.reset();
+    int room=obuf.buffer.length-(obuf.index+13+21+handle.length+Session.buffer_margin);
+    if(length>room && obuf.buffer!=data && limit_write>room){
+      return sendWRITE(handle, offset, data, start, length, room);
+    }
+    if(limit_write>0 && length>limit_write){
+      length=limit_write;
+    }
+    int _length=length;
     if(obuf.buffer.length<obuf.index+13+21+handle.length+length+Session.buffer_margin){
       _length=obuf.buffer.length-(obuf.index+13+21+handle.length+Session.buffer_margin);
       // System.err.println("_length="+_length+" length="+length);
@@ -2646,6 +3366,41 @@ public class ChannelSftp extends ChannelSession{
     getSession().write(opacket, this, 21+handle.length+_length+4);
     return _length;
   }
+  // a WRITE of up to limit_write bytes, which is more than the room in one
+  // channel packet; the rest of its data follows in more packets
+  private int sendWRITE(byte[] handle, long offset, 
+                        byte[] data, int start, int length, int room) throws Exception{
+    int _length=length;
+    if(_length>limit_write){
+      _length=limit_write;
+    }
+    obuf.putByte((byte)Session.SSH_MSG_CHANNEL_DATA);
+    obuf.putInt(recipient);
+    obuf.putInt(21+handle.length+room+4);
+    obuf.putInt(21+handle.length+_length);
+    obuf.putByte(SSH_FXP_WRITE);
+    obuf.putInt(seq++);
+    obuf.putString(handle);
+    obuf.putLong(offset);
+    obuf.putInt(_length);
+    obuf.putByte(data, start, room);
+    getSession().write(opacket, this, 21+handle.length+room+4);
+
+    int s=room;
+    while(s<_length){
+      opacket.reset();
+      int foo=obuf.buffer.length-(obuf.index+9+Session.buffer_margin);
+      if(foo>_length-s){
+        foo=_length-s;
+      }
+      obuf.putByte((byte)Session.SSH_MSG_CHANNEL_DATA);
+      obuf.putInt(recipient);
+      obuf.putString(data, start+s, foo);
+      getSession().write(opacket, this, foo);
+      s+=foo;
+    }
+    return _length;
+  }
   private void sendREAD(byte[] handle, long offset, int length) throws Exception{
     sendREAD(handle, offset, length, null);
   }
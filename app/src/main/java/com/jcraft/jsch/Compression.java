@@ -33,6 +33,10 @@ public interface Compression{
   static public final int INFLATER=0;
   static public final int DEFLATER=1;
   void init(int type, int level);
+  // Both return the array holding the result, which may not be buf; a
+  // different array returned by uncompress() takes over buf, which the
+  // caller must not use or recycle afterwards.  compress() keeps any
+  // bytes buf holds past the packet.
   byte[] compress(byte[] buf, int start, int[] len);
   byte[] uncompress(byte[] buf, int start, int[] len);
 }
@@ -0,0 +1,82 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+/**
+ * What compression did for one direction of a session, counted across
+ * rekeys: packets, bytes before and after, and time spent in
+ * compress()/uncompress().  Session hands out copies; they are not taken
+ * under a lock, so while traffic flows the fields may be a packet apart.
+ *
+ * @see Session#getDeflateStats()
+ * @see Session#getInflateStats()
+ */
+public class CompressionStats{
+  long packets;
+  long uncompressed;
+  long compressed;
+  long nanos;
+  int level=-1;
+
+  CompressionStats(){
+  }
+
+  CompressionStats(CompressionStats foo){
+    packets=foo.packets;
+    uncompressed=foo.uncompressed;
+    compressed=foo.compressed;
+    nanos=foo.nanos;
+    level=foo.level;
+  }
+
+  void add(int uncompressed, int compressed, long nanos){
+    this.packets++;
+    this.uncompressed+=uncompressed;
+    this.compressed+=compressed;
+    this.nanos+=nanos;
+  }
+
+  public long getPackets(){ return packets; }
+  public long getUncompressedBytes(){ return uncompressed; }
+  public long getCompressedBytes(){ return compressed; }
+  /** CPU time spent in deflate or inflate, in nanoseconds. */
+  public long getNanos(){ return nanos; }
+  /** compressed/uncompressed, 1 if nothing went through yet. */
+  public double getRatio(){
+    return uncompressed==0 ? 1.0 : (double)compressed/uncompressed;
+  }
+  /** The deflate level in use, -1 for the inflate side or none. */
+  public int getLevel(){ return level; }
+
+  public String toString(){
+    return packets+" packets, "+uncompressed+" -> "+compressed+" bytes, "+
+           (nanos/1000000)+" ms"+(level>=0 ? ", level "+level : "");
+  }
+}
@@ -0,0 +1,81 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+/**
+ * Picks the deflate level for compression_level=adaptive from what the last
+ * window of outgoing data cost.  Data that does not shrink by a tenth
+ * (JPEGs, archives, already compressed files over SFTP) goes down to level
+ * 1 at once.  Otherwise the level goes up by one when more time went into
+ * writing to the socket than into deflate, i.e. the link is the bottleneck
+ * and every byte saved pays, and down by one when deflate took more time
+ * than the writes.
+ */
+final class CompressionTuner{
+  static final int WINDOW=256*1024;  // uncompressed bytes per decision
+
+  private int level;
+  private long in;
+  private long out;
+  private long deflateNanos;
+  private long writeNanos;
+
+  CompressionTuner(int level){
+    this.level=level;
+  }
+
+  int getLevel(){ return level; }
+
+  void wrote(long nanos){
+    writeNanos+=nanos;
+  }
+
+  /**
+   * Accounts for one packet and returns the level for the next one.
+   */
+  int deflated(int uncompressed, int compressed, long nanos){
+    in+=uncompressed;
+    out+=compressed;
+    deflateNanos+=nanos;
+    if(in<WINDOW) return level;
+
+    if(out*10>in*9){
+      level=1;
+    }
+    else if(writeNanos>2*deflateNanos){
+      if(level<9) level++;
+    }
+    else if(deflateNanos>2*writeNanos){
+      if(level>1) level--;
+    }
+    in=out=deflateNanos=writeNanos=0;
+    return level;
+  }
+}
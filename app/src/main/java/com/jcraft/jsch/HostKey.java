@@ -36,7 +36,8 @@ public class HostKey{
     Util.str2byte("ssh-rsa"),
     Util.str2byte("ecdsa-sha2-nistp256"),
     Util.str2byte("ecdsa-sha2-nistp384"),
-    Util.str2byte("ecdsa-sha2-nistp521")
+    Util.str2byte("ecdsa-sha2-nistp521"),
+    Util.str2byte("ssh-ed25519")
   };
 
   protected static final int GUESS=0;
@@ -45,7 +46,8 @@ public class HostKey{
   public static final int ECDSA256=3;
   public static final int ECDSA384=4;
   public static final int ECDSA521=5;
-  static final int UNKNOWN=6;
+  public static final int ED25519=6;
+  static final int UNKNOWN=7;
 
   protected String marker;
   protected String host;
@@ -72,6 +74,7 @@ public class HostKey{
       else if(key[8]=='a' && key[20]=='2'){ this.type=ECDSA256; }
       else if(key[8]=='a' && key[20]=='3'){ this.type=ECDSA384; }
       else if(key[8]=='a' && key[20]=='5'){ this.type=ECDSA521; }
+      else if(key[8]=='e'){ this.type=ED25519; }
       else { throw new JSchException("invalid key type");}
     }
     else{
@@ -87,7 +90,8 @@ public class HostKey{
        type==SSHRSA ||
        type==ECDSA256 ||
        type==ECDSA384 ||
-       type==ECDSA521){
+       type==ECDSA521 ||
+       type==ED25519){
       return Util.byte2str(names[type-1]);
     }
     return "UNKNOWN";
@@ -56,11 +56,76 @@ public class IO{
     setInputStream(in);
   }
 
+  // Write coalescing for the session socket.  With a write buffer set,
+  // put(Packet, boolean) gathers the encoded packets and Session._write decides
+  // when to flush(); see Session.beginBatch().
+  private byte[] wbuf=null;
+  private int wlen=0;
+  private long wtime=0L;   // when the oldest buffered byte was put
+  private long wdelay=0L;
+
+  void setWriteBuffer(int size, long delay){
+    wbuf=(size>0 ? new byte[size] : null);
+    wlen=0;
+    wdelay=delay;
+  }
+
   public void put(Packet p) throws IOException, java.net.SocketException {
-    out.write(p.buffer.buffer, 0, p.buffer.index);
+    if(wbuf==null){
+      out.write(p.buffer.buffer, 0, p.buffer.index);
+      out.flush();
+      return;
+    }
+    put(p, true);
+    flush();
+  }
+
+  /**
+   * Adds p to the write buffer.  last says the caller will flush() right
+   * after, in which case p is written directly if nothing is buffered.
+   */
+  void put(Packet p, boolean last) throws IOException {
+    int len=p.buffer.index;
+    if(wlen+len>wbuf.length && wlen>0){
+      out.write(wbuf, 0, wlen);
+      wlen=0;
+    }
+    if(len>=wbuf.length || (last && wlen==0)){
+      out.write(p.buffer.buffer, 0, len);
+      return;
+    }
+    if(wlen==0){
+      wtime=System.currentTimeMillis();
+    }
+    System.arraycopy(p.buffer.buffer, 0, wbuf, wlen, len);
+    wlen+=len;
+  }
+
+  boolean isBuffered(){
+    return wbuf!=null;
+  }
+
+  /**
+   * @return true if buffered packets have waited longer than the
+   *         latency bound and must be flushed now
+   */
+  boolean isFlushDue(){
+    return wlen>0 && (System.currentTimeMillis()-wtime)>=wdelay;
+  }
+
+  void flush() throws IOException {
+    if(wlen>0){
+      out.write(wbuf, 0, wlen);
+      wlen=0;
+    }
     out.flush();
   }
+
   void put(byte[] array, int begin, int length) throws IOException {
+    if(wlen>0){
+      out.write(wbuf, 0, wlen);
+      wlen=0;
+    }
     out.write(array, begin, length);
     out.flush();
   }
@@ -40,23 +40,49 @@ public class JSch{
 
   static java.util.Hashtable config=new java.util.Hashtable();
   static{
-    config.put("kex", "ecdh-sha2-nistp256,ecdh-sha2-nistp384,ecdh-sha2-nistp521,diffie-hellman-group14-sha1,diffie-hellman-group-exchange-sha256,diffie-hellman-group-exchange-sha1,diffie-hellman-group1-sha1");
-    config.put("server_host_key", "ssh-rsa,ssh-dss,ecdsa-sha2-nistp256,ecdsa-sha2-nistp384,ecdsa-sha2-nistp521");
+    config.put("kex", "curve25519-sha256,curve25519-sha256@libssh.org,ecdh-sha2-nistp256,ecdh-sha2-nistp384,ecdh-sha2-nistp521,diffie-hellman-group14-sha1,diffie-hellman-group-exchange-sha256,diffie-hellman-group-exchange-sha1,diffie-hellman-group1-sha1");
+    config.put("server_host_key", "ssh-ed25519,ssh-rsa,ssh-dss,ecdsa-sha2-nistp256,ecdsa-sha2-nistp384,ecdsa-sha2-nistp521");
     config.put("cipher.s2c", 
+               gcm("aes128-gcm@openssh.com,aes256-gcm@openssh.com,")+"chacha20-poly1305@openssh.com,"+
                "aes128-ctr,aes128-cbc,3des-ctr,3des-cbc,blowfish-cbc,aes192-ctr,aes192-cbc,aes256-ctr,aes256-cbc");
     config.put("cipher.c2s",
+               gcm("aes128-gcm@openssh.com,aes256-gcm@openssh.com,")+"chacha20-poly1305@openssh.com,"+
                "aes128-ctr,aes128-cbc,3des-ctr,3des-cbc,blowfish-cbc,aes192-ctr,aes192-cbc,aes256-ctr,aes256-cbc");
 
-    config.put("mac.s2c", "hmac-md5,hmac-sha1,hmac-sha2-256,hmac-sha1-96,hmac-md5-96");
-    config.put("mac.c2s", "hmac-md5,hmac-sha1,hmac-sha2-256,hmac-sha1-96,hmac-md5-96");
+    config.put("mac.s2c", 
+               "umac-64-etm@openssh.com,umac-128-etm@openssh.com,hmac-sha2-256-etm@openssh.com,hmac-sha1-etm@openssh.com,"+
+               "umac-64@openssh.com,umac-128@openssh.com,"+
+               "hmac-md5,hmac-sha1,hmac-sha2-256,hmac-sha1-96,hmac-md5-96");
+    config.put("mac.c2s", 
+               "umac-64-etm@openssh.com,umac-128-etm@openssh.com,hmac-sha2-256-etm@openssh.com,hmac-sha1-etm@openssh.com,"+
+               "umac-64@openssh.com,umac-128@openssh.com,"+
+               "hmac-md5,hmac-sha1,hmac-sha2-256,hmac-sha1-96,hmac-md5-96");
     config.put("compression.s2c", "none");
     config.put("compression.c2s", "none");
 
     config.put("lang.s2c", "");
     config.put("lang.c2s", "");
 
+    // 1..9, or "adaptive": level 1 for data that does not compress, higher
+    // levels while the link rather than deflate is the bottleneck, see
+    // CompressionTuner; Session.getDeflateStats() shows what it chose.
     config.put("compression_level", "6");
 
+    // Coalescing of outgoing packets into one socket write, see
+    // Session.beginBatch().  A size of 0 flushes every packet.
+    config.put("write_buffer_size", "65536");
+    config.put("write_buffer_delay", "10");    // milliseconds
+
+    // Send channel packets from a dedicated writer thread, see
+    // Session.startWriter().
+    config.put("writer_thread", "no");
+    config.put("writer_queue_size", "256");
+
+    // Upper limit for the auto-tuned receive window of each channel, see
+    // Channel.useLocalWindow().  At or below a channel's initial window
+    // size, the window stays fixed.
+    config.put("local_window_size_max", "16777216");
+
     config.put("diffie-hellman-group-exchange-sha1", 
                                 "com.jcraft.jsch.DHGEX");
     config.put("diffie-hellman-group1-sha1", 
@@ -66,6 +92,7 @@ public class JSch{
     config.put("diffie-hellman-group-exchange-sha256", 
                "com.jcraft.jsch.DHGEX256"); // available since JDK1.4.2.
                                             // On JDK8, 2048bits will be used.
+    config.put("ssh-ed25519", "com.jcraft.jsch.jcraft.SignatureEd25519");
     config.put("ecdsa-sha2-nistp256", "com.jcraft.jsch.jce.SignatureECDSA256");
     config.put("ecdsa-sha2-nistp384", "com.jcraft.jsch.jce.SignatureECDSA384");
     config.put("ecdsa-sha2-nistp521", "com.jcraft.jsch.jce.SignatureECDSA521");
@@ -76,6 +103,10 @@ public class JSch{
 
     config.put("ecdh-sha2-nistp", "com.jcraft.jsch.jce.ECDHN");
 
+    config.put("curve25519-sha256", "com.jcraft.jsch.DH25519");
+    config.put("curve25519-sha256@libssh.org", "com.jcraft.jsch.DH25519");
+    config.put("xdh", "com.jcraft.jsch.jcraft.X25519");
+
     config.put("dh",            "com.jcraft.jsch.jce.DH");
     config.put("3des-cbc",      "com.jcraft.jsch.jce.TripleDESCBC");
     config.put("blowfish-cbc",  "com.jcraft.jsch.jce.BlowfishCBC");
@@ -87,6 +118,13 @@ public class JSch{
     //config.put("hmac-sha2-512",  "com.jcraft.jsch.jce.HMACSHA512");
     config.put("hmac-md5",      "com.jcraft.jsch.jce.HMACMD5");
     config.put("hmac-md5-96",   "com.jcraft.jsch.jce.HMACMD596");
+    config.put("umac-64@openssh.com",  "com.jcraft.jsch.jce.UMAC64");
+    config.put("umac-128@openssh.com", "com.jcraft.jsch.jce.UMAC128");
+    // encrypt-then-mac, same MACs over the ciphertext, see Session.encode()
+    config.put("hmac-sha1-etm@openssh.com",     "com.jcraft.jsch.jce.HMACSHA1");
+    config.put("hmac-sha2-256-etm@openssh.com", "com.jcraft.jsch.jce.HMACSHA256");
+    config.put("umac-64-etm@openssh.com",  "com.jcraft.jsch.jce.UMAC64");
+    config.put("umac-128-etm@openssh.com", "com.jcraft.jsch.jce.UMAC128");
     config.put("sha-1",         "com.jcraft.jsch.jce.SHA1");
     config.put("sha-256",         "com.jcraft.jsch.jce.SHA256");
     config.put("sha-384",         "com.jcraft.jsch.jce.SHA384");
@@ -97,6 +135,7 @@ public class JSch{
     config.put("keypairgen.dsa",   "com.jcraft.jsch.jce.KeyPairGenDSA");
     config.put("keypairgen.rsa",   "com.jcraft.jsch.jce.KeyPairGenRSA");
     config.put("keypairgen.ecdsa", "com.jcraft.jsch.jce.KeyPairGenECDSA");
+    config.put("keypairgen.eddsa", "com.jcraft.jsch.jcraft.KeyPairGenEd25519");
     config.put("random",        "com.jcraft.jsch.jce.Random");
 
     config.put("none",           "com.jcraft.jsch.CipherNone");
@@ -105,6 +144,9 @@ public class JSch{
     config.put("aes192-cbc",    "com.jcraft.jsch.jce.AES192CBC");
     config.put("aes256-cbc",    "com.jcraft.jsch.jce.AES256CBC");
 
+    config.put("chacha20-poly1305@openssh.com", "com.jcraft.jsch.jcraft.ChaCha20Poly1305");
+    config.put("aes128-gcm@openssh.com", "com.jcraft.jsch.jce.AES128GCM");
+    config.put("aes256-gcm@openssh.com", "com.jcraft.jsch.jce.AES256GCM");
     config.put("aes128-ctr",    "com.jcraft.jsch.jce.AES128CTR");
     config.put("aes192-ctr",    "com.jcraft.jsch.jce.AES192CTR");
     config.put("aes256-ctr",    "com.jcraft.jsch.jce.AES256CTR");
@@ -120,17 +162,18 @@ public class JSch{
     config.put("userauth.gssapi-with-mic",    "com.jcraft.jsch.UserAuthGSSAPIWithMIC");
     config.put("gssapi-with-mic.krb5",    "com.jcraft.jsch.jgss.GSSContextKrb5");
 
-    config.put("zlib",             "com.jcraft.jsch.jcraft.Compression");
-    config.put("zlib@openssh.com", "com.jcraft.jsch.jcraft.Compression");
+    config.put("zlib",             zlib());
+    config.put("zlib@openssh.com", zlib());
 
     config.put("pbkdf", "com.jcraft.jsch.jce.PBKDF");
+    config.put("bcrypt", "com.jcraft.jsch.jcraft.BCryptPBKDF");
 
     config.put("StrictHostKeyChecking",  "ask");
     config.put("HashKnownHosts",  "no");
 
     config.put("PreferredAuthentications", "gssapi-with-mic,publickey,keyboard-interactive,password");
 
-    config.put("CheckCiphers", "aes256-ctr,aes192-ctr,aes128-ctr,aes256-cbc,aes192-cbc,aes128-cbc,3des-ctr,arcfour,arcfour128,arcfour256");
+    config.put("CheckCiphers", gcm("aes256-gcm@openssh.com,aes128-gcm@openssh.com,")+"aes256-ctr,aes192-ctr,aes128-ctr,aes256-cbc,aes192-cbc,aes128-cbc,3des-ctr,arcfour,arcfour128,arcfour256");
     config.put("CheckKexes", "diffie-hellman-group14-sha1,ecdh-sha2-nistp256,ecdh-sha2-nistp384,ecdh-sha2-nistp521");
     config.put("CheckSignatures", "ecdsa-sha2-nistp256,ecdsa-sha2-nistp384,ecdsa-sha2-nistp521");
 
@@ -138,6 +181,35 @@ public class JSch{
     config.put("ClearAllForwardings", "no");
   }
 
+  /**
+   * The platform's zlib where java.util.zip can flush mid-stream (Java 7,
+   * Android API 19), jzlib otherwise.
+   */
+  private static String zlib(){
+    try{
+      java.util.zip.Deflater.class.getMethod("deflate", byte[].class,
+                                             int.class, int.class, int.class);
+      return "com.jcraft.jsch.jce.Compression";
+    }
+    catch(Exception e){
+      return "com.jcraft.jsch.jcraft.Compression";
+    }
+  }
+
+  /**
+   * The given AES-GCM cipher names if the platform has GCMParameterSpec
+   * (Java 7, Android API 19), nothing otherwise.
+   */
+  private static String gcm(String ciphers){
+    try{
+      Class.forName("javax.crypto.spec.GCMParameterSpec");
+      return ciphers;
+    }
+    catch(Exception e){
+      return "";
+    }
+  }
+
   private java.util.Vector sessionPool = new java.util.Vector();
 
   private IdentityRepository defaultIdentityRepository =
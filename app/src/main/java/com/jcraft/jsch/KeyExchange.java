@@ -76,12 +76,14 @@ public abstract class KeyExchange{
   protected final int RSA=0;
   protected final int DSS=1;
   protected final int ECDSA=2;
+  protected final int ED25519=3;
   private int type=0;
   private String key_alg_name = "";
 
   public String getKeyType() {
     if(type==DSS) return "DSA";
     if(type==RSA) return "RSA";
+    if(type==ED25519) return "ED25519";
     return "ECDSA";
   }
 
@@ -89,6 +91,16 @@ public abstract class KeyExchange{
     return key_alg_name;
   }
 
+  private static boolean isAEAD(String cipher){
+    try{
+      Class c=Class.forName(JSch.getConfig(cipher));
+      return AEADCipher.class.isAssignableFrom(c);
+    }
+    catch(Exception e){
+      return false;
+    }
+  }
+
   protected static String[] guess(byte[]I_S, byte[]I_C){
     String[] guess=new String[PROPOSAL_MAX];
     Buffer sb=new Buffer(I_S); sb.setOffSet(17);
@@ -137,6 +149,12 @@ public abstract class KeyExchange{
 	guess[i]="";
       }
       else if(guess[i]==null){
+        // an AEAD cipher needs no MAC, RFC 5647 5.1
+        if((i==PROPOSAL_MAC_ALGS_CTOS && isAEAD(guess[PROPOSAL_ENC_ALGS_CTOS])) ||
+           (i==PROPOSAL_MAC_ALGS_STOC && isAEAD(guess[PROPOSAL_ENC_ALGS_STOC]))){
+          guess[i]="";
+          continue;
+        }
 	return null;
       }
     }
@@ -315,6 +333,34 @@ public abstract class KeyExchange{
 
       result=sig.verify(sig_of_H);
     }
+    else if(alg.equals("ssh-ed25519")){
+      byte[] tmp;
+
+      type=ED25519;
+      key_alg_name=alg;
+
+      j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
+        ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
+      tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
+
+      SignatureEdDSA sig=null;
+      try{
+        Class c=Class.forName(session.getConfig(alg));
+        sig=(SignatureEdDSA)(c.newInstance());
+        sig.init();
+      }
+      catch(Exception e){
+        System.err.println(e);
+      }
+      sig.setPubKey(tmp);
+      sig.update(H);
+      result=sig.verify(sig_of_H);
+
+      if(JSch.getLogger().isEnabled(Logger.INFO)){
+        JSch.getLogger().log(Logger.INFO, 
+                             "ssh_ed25519_verify: signature "+result);
+      }
+    }
     else{
       System.err.println("unknown alg");
     }	    
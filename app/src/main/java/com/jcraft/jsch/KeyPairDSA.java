@@ -129,6 +129,19 @@ public class KeyPairDSA extends KeyPair{
 	}
 	return false;
       }
+      else if(vendor==VENDOR_OPENSSH_V1){
+        Buffer buf=openSSHv1(plain);
+        if(buf==null) return false;
+        byte[][] tmp = buf.getBytes(6, "");
+        P_array = tmp[0];
+        Q_array = tmp[1];
+        G_array = tmp[2];
+        pub_array = tmp[3];
+        prv_array = tmp[4];
+        publicKeyComment = new String(tmp[5]);
+        key_size = (new java.math.BigInteger(P_array)).bitLength();
+        return true;
+      }
       else if(vendor==VENDOR_PUTTY){
         Buffer buf=new Buffer(plain);
         buf.skip(plain.length);
@@ -172,6 +172,20 @@ public class KeyPairECDSA extends KeyPair{
         */
 	return false;
       }
+      else if(vendor==VENDOR_OPENSSH_V1){
+        Buffer buf=openSSHv1(plain);
+        if(buf==null) return false;
+        byte[][] tmp = buf.getBytes(4, "");
+        name = tmp[0];
+        byte[][] foo = fromPoint(tmp[1]);
+        r_array = foo[0];
+        s_array = foo[1];
+        prv_array = tmp[2];
+        publicKeyComment = new String(tmp[3]);
+        key_size = r_array.length>=64 ? 521 :
+                    (r_array.length>=48 ? 384 : 256);
+        return true;
+      }
       else if(vendor==VENDOR_PUTTY){
         /*
         Buffer buf=new Buffer(plain);
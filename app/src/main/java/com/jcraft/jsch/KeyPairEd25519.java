@@ -0,0 +1,198 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+public class KeyPairEd25519 extends KeyPair{
+  private byte[] pub_array;  // 32 bytes
+  private byte[] prv_array;  // 32 bytes, the seed
+
+  public KeyPairEd25519(JSch jsch){
+    this(jsch, null, null);
+  }
+
+  public KeyPairEd25519(JSch jsch,
+                        byte[] pub_array,
+                        byte[] prv_array){
+    super(jsch);
+    this.pub_array = pub_array;
+    this.prv_array = prv_array;
+    vendor=VENDOR_OPENSSH_V1;   // there is no PEM format for ed25519 keys
+  }
+
+  void generate(int key_size) throws JSchException{
+    try{
+      Class c=Class.forName(jsch.getConfig("keypairgen.eddsa"));
+      KeyPairGenEdDSA keypairgen=(KeyPairGenEdDSA)(c.newInstance());
+      keypairgen.init();
+      pub_array=keypairgen.getPub();
+      prv_array=keypairgen.getPrv();
+      keypairgen=null;
+    }
+    catch(Exception e){
+      if(e instanceof Throwable)
+        throw new JSchException(e.toString(), (Throwable)e);
+      throw new JSchException(e.toString());
+    }
+  }
+
+  byte[] getBegin(){ return begin_v1; }
+  byte[] getEnd(){ return end_v1; }
+
+  // the private section of openssh-key-v1, less the check integers
+  byte[] getPrivateKey(){
+    try{
+      return forSSHAgent();
+    }
+    catch(JSchException e){
+    }
+    return null;
+  }
+
+  boolean parse(byte[] plain){
+    try{
+      if(vendor!=VENDOR_OPENSSH_V1) return false;
+
+      Buffer buf=openSSHv1(plain);
+      if(buf==null) return false;
+      byte[][] tmp = buf.getBytes(3, "");
+      if(tmp[0].length!=32 || tmp[1].length!=64) return false;
+      pub_array = tmp[0];
+      prv_array = new byte[32];
+      System.arraycopy(tmp[1], 0, prv_array, 0, 32);
+      Util.bzero(tmp[1]);
+      publicKeyComment = new String(tmp[2]);
+    }
+    catch(Exception e){
+      return false;
+    }
+    return true;
+  }
+
+  public byte[] getPublicKeyBlob(){
+    byte[] foo=super.getPublicKeyBlob();
+    if(foo!=null) return foo;
+
+    if(pub_array==null) return null;
+    byte[][] tmp = new byte[2][];
+    tmp[0] = sshed25519;
+    tmp[1] = pub_array;
+    return Buffer.fromBytes(tmp).buffer;
+  }
+
+  private static final byte[] sshed25519=Util.str2byte("ssh-ed25519");
+  byte[] getKeyTypeName(){return sshed25519;}
+  public int getKeyType(){return ED25519;}
+
+  public int getKeySize(){
+    return 256;
+  }
+
+  public byte[] getSignature(byte[] data){
+    try{
+      Class c=Class.forName((String)jsch.getConfig("ssh-ed25519"));
+      SignatureEdDSA eddsa=(SignatureEdDSA)(c.newInstance());
+      eddsa.init();
+      eddsa.setPubKey(pub_array);
+      eddsa.setPrvKey(prv_array);
+
+      eddsa.update(data);
+      byte[] sig = eddsa.sign();
+      byte[][] tmp = new byte[2][];
+      tmp[0] = sshed25519;
+      tmp[1] = sig;
+      return Buffer.fromBytes(tmp).buffer;
+    }
+    catch(Exception e){
+    }
+    return null;
+  }
+
+  public Signature getVerifier(){
+    try{
+      Class c=Class.forName((String)jsch.getConfig("ssh-ed25519"));
+      SignatureEdDSA eddsa=(SignatureEdDSA)(c.newInstance());
+      eddsa.init();
+
+      if(pub_array == null && getPublicKeyBlob()!=null){
+        Buffer buf = new Buffer(getPublicKeyBlob());
+        buf.getString();
+        pub_array = buf.getString();
+      }
+
+      eddsa.setPubKey(pub_array);
+      return eddsa;
+    }
+    catch(Exception e){
+    }
+    return null;
+  }
+
+  static KeyPair fromSSHAgent(JSch jsch, Buffer buf) throws JSchException {
+
+    byte[][] tmp = buf.getBytes(4, "invalid key format");
+
+    byte[] pub_array = tmp[1];
+    if(pub_array.length!=32 || tmp[2].length!=64){
+      throw new JSchException("invalid key format");
+    }
+    byte[] prv_array = new byte[32];
+    System.arraycopy(tmp[2], 0, prv_array, 0, 32);
+    KeyPairEd25519 kpair = new KeyPairEd25519(jsch, pub_array, prv_array);
+    kpair.publicKeyComment = new String(tmp[3]);
+    return kpair;
+  }
+
+  /*
+    The same fields make up the private section of an openssh-key-v1 file:
+    string "ssh-ed25519", string pub, string seed||pub, string comment.
+  */
+  public byte[] forSSHAgent() throws JSchException {
+    if(isEncrypted()){
+      throw new JSchException("key is encrypted.");
+    }
+    byte[] foo = new byte[64];
+    System.arraycopy(prv_array, 0, foo, 0, 32);
+    System.arraycopy(pub_array, 0, foo, 32, 32);
+    Buffer buf = new Buffer();
+    buf.putString(sshed25519);
+    buf.putString(pub_array);
+    buf.putString(foo);
+    buf.putString(Util.str2byte(publicKeyComment));
+    Util.bzero(foo);
+    byte[] result = new byte[buf.getLength()];
+    buf.getByte(result, 0, result.length);
+    return result;
+  }
+
+  public void dispose(){
+    super.dispose();
+    Util.bzero(prv_array);
+  }
+}
@@ -150,6 +150,25 @@ public class KeyPairRSA extends KeyPair{
         return true;
       }
 
+      if(vendor==VENDOR_OPENSSH_V1){
+        Buffer buf=openSSHv1(plain);
+        if(buf==null) return false;
+        byte[][] tmp = buf.getBytes(7, "");
+        n_array = tmp[0];
+        pub_array = tmp[1];
+        prv_array = tmp[2];
+        c_array = tmp[3];
+        p_array = tmp[4];
+        q_array = tmp[5];
+        publicKeyComment = new String(tmp[6]);
+        key_size = (new java.math.BigInteger(n_array)).bitLength();
+
+        getEPArray();
+        getEQArray();
+
+        return true;
+      }
+
       if(vendor==VENDOR_FSECURE){
 	if(plain[index]!=0x30){                  // FSecure
 	  Buffer buf=new Buffer(plain);
@@ -31,9 +31,6 @@ package com.jcraft.jsch;
 
 public class Packet{
 
-  private static Random random=null;
-  static void setRandom(Random foo){ random=foo;}
-
   Buffer buffer;
   byte[] ba4=new byte[4]; 
   public Packet(Buffer buffer){
@@ -43,8 +40,13 @@ public class Packet{
     buffer.index=5;
   }
   void padding(int bsize){
+    padding(bsize, true);
+  }
+  // aligns the packet to bsize, counting the length field or not (AEAD);
+  // the padding bytes are left for the caller to fill
+  void padding(int bsize, boolean withLength){
     int len=buffer.index;
-    int pad=(-len)&(bsize-1);
+    int pad=(-(withLength ? len : len-4))&(bsize-1);
     if(pad<bsize){
       pad+=bsize;
     }
@@ -55,9 +57,6 @@ public class Packet{
     ba4[3]=(byte)(len);
     System.arraycopy(ba4, 0, buffer.buffer, 0, 4);
     buffer.buffer[4]=(byte)pad;
-    synchronized(random){
-      random.fill(buffer.buffer, buffer.index, pad);
-    }
     buffer.skip(pad);
     //buffer.putPad(pad);
 /*
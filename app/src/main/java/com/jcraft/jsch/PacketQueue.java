@@ -0,0 +1,180 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer/single-consumer queue of outgoing packets, used
+ * by the Session writer thread.  Producers claim a slot by a CAS on tail
+ * and publish a copy of their packet into it, the consumer frees slots by
+ * advancing head.  Nothing is locked unless the queue is full (producers
+ * wait) or empty (the consumer parks).
+ */
+final class PacketQueue{
+  private final AtomicReferenceArray slots;
+  private final int mask;
+  private final AtomicLong tail=new AtomicLong();
+  private volatile long head=0;
+
+  private volatile Thread consumer=null;  // set while parked
+  private volatile int waiting=0;         // producers waiting for a slot
+  private final Object notfull=new Object();
+  private volatile boolean closed=false;
+
+  // copies handed back by the consumer, reused by put()
+  private final ConcurrentLinkedQueue free=new ConcurrentLinkedQueue();
+
+  PacketQueue(int size){
+    int i=1;
+    while(i<size) i<<=1;
+    slots=new AtomicReferenceArray(i);
+    mask=i-1;
+  }
+
+  /**
+   * Queues a copy of packet, waiting for a free slot if needed.
+   * @param timeout milliseconds to wait for a slot, 0 to wait forever
+   */
+  void put(Packet packet, long timeout) throws Exception{
+    Packet copy=copy(packet);
+    long start=0L;
+    while(true){
+      if(closed){
+        throw new java.io.IOException("session is down");
+      }
+      long t=tail.get();
+      if(t-head<=mask){
+        if(tail.compareAndSet(t, t+1)){
+          slots.set((int)t&mask, copy);
+          Thread c=consumer;
+          if(c!=null){
+            LockSupport.unpark(c);
+          }
+          return;
+        }
+        continue;
+      }
+
+      // full
+      if(start==0L){
+        start=System.currentTimeMillis();
+      }
+      synchronized(notfull){
+        waiting++;
+        try{
+          if(tail.get()-head>mask && !closed){
+            long w=0L;
+            if(timeout>0L){
+              w=timeout-(System.currentTimeMillis()-start);
+              if(w<=0L){
+                throw new JSchException("timeout in waiting for the writer thread.");
+              }
+            }
+            notfull.wait(w);
+          }
+        }
+        finally{
+          waiting--;
+        }
+      }
+    }
+  }
+
+  /**
+   * Consumer side.  Returns the next packet, parking until there is one.
+   * @return null once the queue is closed
+   */
+  Packet take(){
+    while(true){
+      Packet p=poll();
+      if(p!=null) return p;
+      if(closed) return null;
+      consumer=Thread.currentThread();
+      if(isEmpty() && !closed){
+        LockSupport.park(this);
+      }
+      consumer=null;
+    }
+  }
+
+  private Packet poll(){
+    long h=head;
+    int i=(int)h&mask;
+    Packet p=(Packet)slots.get(i);
+    if(p==null){
+      return null;  // empty, or the producer has not published yet
+    }
+    slots.set(i, null);
+    head=h+1;
+    if(waiting>0){
+      synchronized(notfull){
+        notfull.notifyAll();
+      }
+    }
+    return p;
+  }
+
+  boolean isEmpty(){
+    return slots.get((int)head&mask)==null;
+  }
+
+  /**
+   * Hands a packet returned by take() back for reuse.
+   */
+  void recycle(Packet p){
+    free.offer(p);
+  }
+
+  void close(){
+    closed=true;
+    Thread c=consumer;
+    if(c!=null){
+      LockSupport.unpark(c);
+    }
+    synchronized(notfull){
+      notfull.notifyAll();
+    }
+  }
+
+  private Packet copy(Packet packet){
+    int len=packet.buffer.index;
+    Packet p=(Packet)free.poll();
+    if(p==null || p.buffer.buffer.length<len+Session.buffer_margin){
+      p=new Packet(new Buffer(len+Session.buffer_margin));
+    }
+    System.arraycopy(packet.buffer.buffer, 0, p.buffer.buffer, 0, len);
+    p.buffer.index=len;
+    return p;
+  }
+}
@@ -0,0 +1,63 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+/**
+ * Random bytes for packet padding, taken from a buffer that is refilled
+ * from Random in bulk.  Session.encode() runs under the session's write
+ * lock, so handing bytes out needs no lock of its own; only the refill,
+ * once every few thousand packets, locks the shared Random.  Bytes are
+ * handed out once and never reused.
+ */
+final class RandomPool{
+  private static final int SIZE=64*1024;
+
+  private final Random random;
+  private final byte[] pool=new byte[SIZE];
+  private int index=SIZE;
+
+  RandomPool(Random random){
+    this.random=random;
+  }
+
+  /**
+   * Fills foo[start, start+len) with random bytes; len is at most SIZE.
+   */
+  void fill(byte[] foo, int start, int len){
+    if(len>SIZE-index){
+      synchronized(random){
+        random.fill(pool, 0, SIZE);
+      }
+      index=0;
+    }
+    System.arraycopy(pool, index, foo, start, len);
+    index+=len;
+  }
+}
@@ -91,6 +91,12 @@ public class Session implements Runnable{
   private Cipher c2scipher;
   private MAC s2cmac;
   private MAC c2smac;
+  // s2ccipher and c2scipher when they are AEAD ciphers, and need no MAC
+  private AEADCipher s2caead;
+  private AEADCipher c2saead;
+  // encrypt-then-mac, the *-etm@openssh.com MACs
+  private boolean s2cetm;
+  private boolean c2setm;
   //private byte[] mac_buf;
   private byte[] s2cmac_result1;
   private byte[] s2cmac_result2;
@@ -189,6 +195,16 @@ public class Session implements Runnable{
     }
 
     io=new IO();
+    {
+      int size=0;
+      int delay=0;
+      try{
+        size=Integer.parseInt(getConfig("write_buffer_size"));
+        delay=Integer.parseInt(getConfig("write_buffer_delay"));
+      }
+      catch(Exception e){ }
+      io.setWriteBuffer(size, delay);
+    }
     if(random==null){
       try{
 	Class c=Class.forName(getConfig("random"));
@@ -198,7 +214,6 @@ public class Session implements Runnable{
         throw new JSchException(e.toString(), e);
       }
     }
-    Packet.setRandom(random);
 
     if(JSch.getLogger().isEnabled(Logger.INFO)){
       JSch.getLogger().log(Logger.INFO, 
@@ -308,7 +323,7 @@ public class Session implements Runnable{
 
       buf=read(buf);
       if(buf.getCommand()!=SSH_MSG_KEXINIT){
-        in_kex=false;
+        kexDone();
 	throw new JSchException("invalid protocol: "+buf.getCommand());
       }
 
@@ -326,12 +341,12 @@ public class Session implements Runnable{
           boolean result=kex.next(buf);
 	  if(!result){
 	    //System.err.println("verify: "+result);
-            in_kex=false;
+            kexDone();
 	    throw new JSchException("verify: "+result);
 	  }
 	}
 	else{
-          in_kex=false;
+          kexDone();
 	  throw new JSchException("invalid protocol(kex): "+buf.getCommand());
 	}
 	if(kex.getState()==KeyExchange.STATE_END){
@@ -347,7 +362,7 @@ public class Session implements Runnable{
         kex_start_time+=(System.currentTimeMillis()-tmp);
       }
       catch(JSchException ee){
-        in_kex=false;
+        kexDone();
         in_prompt = false;
         throw ee;
       }
@@ -367,7 +382,7 @@ public class Session implements Runnable{
 	receive_newkeys(buf, kex);
       }
       else{
-        in_kex=false;
+        kexDone();
 	throw new JSchException("invalid protocol(newkyes): "+buf.getCommand());
       }
 
@@ -534,6 +549,10 @@ public class Session implements Runnable{
           }
           connectThread.start();
 
+          if("yes".equals(getConfig("writer_thread"))){
+            startWriter();
+          }
+
           requestPortForwarding();
         }
         else{
@@ -543,7 +562,7 @@ public class Session implements Runnable{
       }
     }
     catch(Exception e) {
-      in_kex=false;
+      kexDone();
       try{
         if(isConnected){
           String message = e.toString();
@@ -648,6 +667,7 @@ public class Session implements Runnable{
         throw new JSchException("There are not any available sig algorithm.");
       }
     }
+    server_host_key=knownTypesFirst(server_host_key);
 
     in_kex=true;
     kex_start_time=System.currentTimeMillis();
@@ -708,6 +728,47 @@ public class Session implements Runnable{
     }
   }
 
+  /*
+   * Moves the host key types already known for this host to the front, so
+   * that the server offers the key that is on record rather than one that
+   * merely comes first in server_host_key (e.g. ssh-ed25519 on a host
+   * accepted with its ssh-rsa key), which checkHost() would report as a
+   * changed key.
+   */
+  private String knownTypesFirst(String server_host_key){
+    String chost=host;
+    if(hostKeyAlias!=null){
+      chost=hostKeyAlias;
+    }
+    else if(port!=22){
+      chost=("["+chost+"]:"+port);
+    }
+
+    HostKeyRepository hkr=getHostKeyRepository();
+    HostKey[] hks;
+    synchronized(hkr){
+      hks=hkr.getHostKey(chost, null);
+    }
+    if(hks==null || hks.length==0)
+      return server_host_key;
+
+    StringBuffer known=new StringBuffer();
+    StringBuffer rest=new StringBuffer();
+    String[] algs=Util.split(server_host_key, ",");
+    for(int i=0; i<algs.length; i++){
+      boolean found=false;
+      for(int j=0; j<hks.length; j++){
+        if(hks[j].getType().equals(algs[i])){ found=true; break; }
+      }
+      StringBuffer foo=found ? known : rest;
+      if(foo.length()>0) foo.append(",");
+      foo.append(algs[i]);
+    }
+    if(known.length()==0 || rest.length()==0)
+      return server_host_key;
+    return known.append(",").append(rest).toString();
+  }
+
   private void checkHost(String chost, int port, KeyExchange kex) throws JSchException {
     String shkc=getConfig("StrictHostKeyChecking");
 
@@ -883,21 +944,56 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
 //Thread.dumpStack();
 //}
     if(deflater!=null){
+      long t=System.nanoTime();
+      int before=packet.buffer.index-5;
       compress_len[0]=packet.buffer.index;
       packet.buffer.buffer=deflater.compress(packet.buffer.buffer, 
                                              5, compress_len);
       packet.buffer.index=compress_len[0];
+      t=System.nanoTime()-t;
+      deflateStats.add(before, compress_len[0]-5, t);
+      CompressionTuner tu=tuner;
+      if(tu!=null){
+        int level=tu.deflated(before, compress_len[0]-5, t);
+        if(level!=deflateStats.level){
+          ((AdjustableCompression)deflater).setLevel(level);
+          deflateStats.level=level;
+        }
+      }
     }
     if(c2scipher!=null){
       //packet.padding(c2scipher.getIVSize());
-      packet.padding(c2scipher_size);
-      int pad=packet.buffer.buffer[4];
-      synchronized(random){
-	random.fill(packet.buffer.buffer, packet.buffer.index-pad, pad);
-      }
+      packet.padding(c2scipher_size, c2saead==null && !c2setm);
     }
     else{
-      packet.padding(8);
+      packet.padding(8, !c2setm);
+    }
+    if(padding==null){
+      padding=new RandomPool(random);
+    }
+    int pad=packet.buffer.buffer[4]&0xff;
+    padding.fill(packet.buffer.buffer, packet.buffer.index-pad, pad);
+
+    if(c2saead!=null){
+      byte[] buf=packet.buffer.buffer;
+      c2saead.update(seqo);
+      c2saead.updateAAD(buf, 0, 4);
+      c2saead.doFinal(buf, 4, packet.buffer.index-4, buf, 4);
+      packet.buffer.skip(c2saead.getTagSize());
+      return;
+    }
+
+    if(c2setm){
+      // the length stays in the clear, the MAC covers it and the ciphertext
+      byte[] buf=packet.buffer.buffer;
+      if(c2scipher!=null){
+        c2scipher.update(buf, 4, packet.buffer.index-4, buf, 4);
+      }
+      c2smac.update(seqo);
+      c2smac.update(buf, 0, packet.buffer.index);
+      c2smac.doFinal(buf, packet.buffer.index);
+      packet.buffer.skip(c2smac.getBlockSize());
+      return;
     }
 
     if(c2smac!=null){
@@ -917,63 +1013,111 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
   int[] uncompress_len=new int[1];
   int[] compress_len=new int[1];
 
+  private RandomPool padding=null;
+
+  private CompressionStats deflateStats=new CompressionStats();
+  private CompressionStats inflateStats=new CompressionStats();
+  private volatile CompressionTuner tuner=null;  // compression_level=adaptive
+
+  /**
+   * Returns a snapshot of what compression did to outgoing packets so far,
+   * including the deflate level in use.
+   */
+  public CompressionStats getDeflateStats(){
+    return new CompressionStats(deflateStats);
+  }
+
+  /**
+   * Returns a snapshot of what decompression did to incoming packets so far.
+   */
+  public CompressionStats getInflateStats(){
+    return new CompressionStats(inflateStats);
+  }
+
   private int s2ccipher_size=8;
   private int c2scipher_size=8;
+  // Receive side arrays.  Ciphertext is read into rcipher and decrypted
+  // from there into buf, because JCE providers copy the input first when
+  // asked to update in place.
+  private BufferPool pool=new BufferPool();
+  private byte[] rcipher=new byte[0];
+
   public Buffer read(Buffer buf) throws Exception{
     int j=0;
     while(true){
       buf.reset();
-      io.getByte(buf.buffer, buf.index, s2ccipher_size); 
-      buf.index+=s2ccipher_size;
-      if(s2ccipher!=null){
-        s2ccipher.update(buf.buffer, 0, s2ccipher_size, buf.buffer, 0);
-      }
-      j=((buf.buffer[0]<<24)&0xff000000)|
-        ((buf.buffer[1]<<16)&0x00ff0000)|
-        ((buf.buffer[2]<< 8)&0x0000ff00)|
-        ((buf.buffer[3]    )&0x000000ff);
-      // RFC 4253 6.1. Maximum Packet Length
-      if(j<5 || j>PACKET_MAX_SIZE){
-        start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE);
-      }
-      int need = j+4-s2ccipher_size;
-      //if(need<0){
-      //  throw new IOException("invalid data");
-      //}
-      if((buf.index+need)>buf.buffer.length){
-        byte[] foo=new byte[buf.index+need];
-        System.arraycopy(buf.buffer, 0, foo, 0, buf.index);
-        buf.buffer=foo;
-      }
-
-      if((need%s2ccipher_size)!=0){
-        String message="Bad packet length "+need;
-        if(JSch.getLogger().isEnabled(Logger.FATAL)){
-          JSch.getLogger().log(Logger.FATAL, message); 
-        }
-        start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE-s2ccipher_size);
+      if(s2caead!=null){
+        readAEAD(buf);
       }
-
-      if(need>0){
-	io.getByte(buf.buffer, buf.index, need); buf.index+=(need);
-	if(s2ccipher!=null){
-	  s2ccipher.update(buf.buffer, s2ccipher_size, need, buf.buffer, s2ccipher_size);
-	}
+      else if(s2cetm){
+        readETM(buf);
       }
+      else{
+        if(s2ccipher!=null){
+          if(rcipher.length<s2ccipher_size){
+            pool.put(rcipher);
+            rcipher=pool.get(s2ccipher_size);
+          }
+          io.getByte(rcipher, 0, s2ccipher_size);
+          s2ccipher.update(rcipher, 0, s2ccipher_size, buf.buffer, 0);
+        }
+        else{
+          io.getByte(buf.buffer, buf.index, s2ccipher_size); 
+        }
+        buf.index+=s2ccipher_size;
+        j=((buf.buffer[0]<<24)&0xff000000)|
+          ((buf.buffer[1]<<16)&0x00ff0000)|
+          ((buf.buffer[2]<< 8)&0x0000ff00)|
+          ((buf.buffer[3]    )&0x000000ff);
+        // RFC 4253 6.1. Maximum Packet Length
+        if(j<5 || j>PACKET_MAX_SIZE){
+          start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE);
+        }
+        int need = j+4-s2ccipher_size;
+        //if(need<0){
+        //  throw new IOException("invalid data");
+        //}
+        if((buf.index+need)>buf.buffer.length){
+          buf.buffer=pool.grow(buf.buffer, buf.index, buf.index+need);
+        }
 
-      if(s2cmac!=null){
-	s2cmac.update(seqi);
-	s2cmac.update(buf.buffer, 0, buf.index);
-
-        s2cmac.doFinal(s2cmac_result1, 0);
-	io.getByte(s2cmac_result2, 0, s2cmac_result2.length);
-        if(!java.util.Arrays.equals(s2cmac_result1, s2cmac_result2)){
-          if(need > PACKET_MAX_SIZE){
-            throw new IOException("MAC Error");
+        if((need%s2ccipher_size)!=0){
+          String message="Bad packet length "+need;
+          if(JSch.getLogger().isEnabled(Logger.FATAL)){
+            JSch.getLogger().log(Logger.FATAL, message); 
           }
-          start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE-need);
-          continue;
-	}
+          start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE-s2ccipher_size);
+        }
+
+        if(need>0){
+	  if(s2ccipher!=null){
+            if(rcipher.length<need){
+              pool.put(rcipher);
+              rcipher=pool.get(need);
+            }
+	    io.getByte(rcipher, 0, need);
+	    s2ccipher.update(rcipher, 0, need, buf.buffer, s2ccipher_size);
+	  }
+	  else{
+	    io.getByte(buf.buffer, buf.index, need);
+	  }
+	  buf.index+=(need);
+        }
+
+        if(s2cmac!=null){
+	  s2cmac.update(seqi);
+	  s2cmac.update(buf.buffer, 0, buf.index);
+
+          s2cmac.doFinal(s2cmac_result1, 0);
+	  io.getByte(s2cmac_result2, 0, s2cmac_result2.length);
+          if(!java.util.Arrays.equals(s2cmac_result1, s2cmac_result2)){
+            if(need > PACKET_MAX_SIZE){
+              throw new IOException("MAC Error");
+            }
+            start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE-need);
+            continue;
+	  }
+        }
       }
 
       seqi++;
@@ -982,9 +1126,12 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
         //inflater.uncompress(buf);
 	int pad=buf.buffer[4];
 	uncompress_len[0]=buf.index-5-pad;
+        int before=uncompress_len[0];
+        long t=System.nanoTime();
 	byte[] foo=inflater.uncompress(buf.buffer, 5, uncompress_len);
 	if(foo!=null){
-	  buf.buffer=foo;
+          inflateStats.add(uncompress_len[0], before, System.nanoTime()-t);
+	  buf.buffer=foo;      // the inflater keeps the old array
 	  buf.index=5+uncompress_len[0];
 	}
 	else{
@@ -1059,6 +1206,82 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
     return buf;
   }
 
+  // the packet length comes first, the tag is checked with the rest
+  private void readAEAD(Buffer buf) throws Exception{
+    io.getByte(buf.buffer, 0, 4);
+    buf.index=4;
+    s2caead.update(seqi);
+    s2caead.updateAAD(buf.buffer, 0, 4);
+    int j=((buf.buffer[0]<<24)&0xff000000)|
+          ((buf.buffer[1]<<16)&0x00ff0000)|
+          ((buf.buffer[2]<< 8)&0x0000ff00)|
+          ((buf.buffer[3]    )&0x000000ff);
+    if(j<5 || j>PACKET_MAX_SIZE || (j%s2ccipher_size)!=0){
+      String message="Bad packet length "+j;
+      if(JSch.getLogger().isEnabled(Logger.FATAL)){
+        JSch.getLogger().log(Logger.FATAL, message); 
+      }
+      throw new JSchException("Packet corrupt");
+    }
+    if(4+j>buf.buffer.length){
+      buf.buffer=pool.grow(buf.buffer, 4, 4+j);
+    }
+    int need=j+s2caead.getTagSize();
+    if(rcipher.length<need){
+      pool.put(rcipher);
+      rcipher=pool.get(need);
+    }
+    io.getByte(rcipher, 0, need);
+    try{
+      s2caead.doFinal(rcipher, 0, j, buf.buffer, 4);
+    }
+    catch(java.security.GeneralSecurityException e){
+      throw new IOException("MAC Error");
+    }
+    buf.index+=j;
+  }
+
+  // the packet length is in the clear, and the MAC is checked before any
+  // decryption
+  private void readETM(Buffer buf) throws Exception{
+    io.getByte(buf.buffer, 0, 4);
+    buf.index=4;
+    int j=((buf.buffer[0]<<24)&0xff000000)|
+          ((buf.buffer[1]<<16)&0x00ff0000)|
+          ((buf.buffer[2]<< 8)&0x0000ff00)|
+          ((buf.buffer[3]    )&0x000000ff);
+    if(j<5 || j>PACKET_MAX_SIZE || (j%s2ccipher_size)!=0){
+      String message="Bad packet length "+j;
+      if(JSch.getLogger().isEnabled(Logger.FATAL)){
+        JSch.getLogger().log(Logger.FATAL, message); 
+      }
+      throw new JSchException("Packet corrupt");
+    }
+    if(4+j>buf.buffer.length){
+      buf.buffer=pool.grow(buf.buffer, 4, 4+j);
+    }
+    if(rcipher.length<j){
+      pool.put(rcipher);
+      rcipher=pool.get(j);
+    }
+    io.getByte(rcipher, 0, j);
+    io.getByte(s2cmac_result2, 0, s2cmac_result2.length);
+    s2cmac.update(seqi);
+    s2cmac.update(buf.buffer, 0, 4);
+    s2cmac.update(rcipher, 0, j);
+    s2cmac.doFinal(s2cmac_result1, 0);
+    if(!java.util.Arrays.equals(s2cmac_result1, s2cmac_result2)){
+      throw new IOException("MAC Error");
+    }
+    if(s2ccipher!=null){
+      s2ccipher.update(rcipher, 0, j, buf.buffer, 4);
+    }
+    else{
+      System.arraycopy(rcipher, 0, buf.buffer, 4, j);
+    }
+    buf.index+=j;
+  }
+
   private void start_discard(Buffer buf, Cipher cipher, MAC mac, 
                              int packet_length, int discard) throws JSchException, IOException{
     MAC discard_mac = null;
@@ -1096,7 +1319,7 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
 
   private void receive_newkeys(Buffer buf, KeyExchange kex) throws Exception {
     updateKeys(kex);
-    in_kex=false;
+    kexDone();
   }
   private void updateKeys(KeyExchange kex) throws Exception{
     byte[] K=kex.getK();
@@ -1169,14 +1392,23 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
       s2ccipher.init(Cipher.DECRYPT_MODE, Es2c, IVs2c);
       s2ccipher_size=s2ccipher.getIVSize();
 
-      method=guess[KeyExchange.PROPOSAL_MAC_ALGS_STOC];
-      c=Class.forName(getConfig(method));
-      s2cmac=(MAC)(c.newInstance());
-      MACs2c = expandKey(buf, K, H, MACs2c, hash, s2cmac.getBlockSize());
-      s2cmac.init(MACs2c);
-      //mac_buf=new byte[s2cmac.getBlockSize()];
-      s2cmac_result1=new byte[s2cmac.getBlockSize()];
-      s2cmac_result2=new byte[s2cmac.getBlockSize()];
+      if(s2ccipher instanceof AEADCipher){
+        s2caead=(AEADCipher)s2ccipher;
+        s2cmac=null;
+        s2cetm=false;
+      }
+      else{
+        s2caead=null;
+        method=guess[KeyExchange.PROPOSAL_MAC_ALGS_STOC];
+        s2cetm=method.endsWith("-etm@openssh.com");
+        c=Class.forName(getConfig(method));
+        s2cmac=(MAC)(c.newInstance());
+        MACs2c = expandKey(buf, K, H, MACs2c, hash, s2cmac.getBlockSize());
+        s2cmac.init(MACs2c);
+        //mac_buf=new byte[s2cmac.getBlockSize()];
+        s2cmac_result1=new byte[s2cmac.getBlockSize()];
+        s2cmac_result2=new byte[s2cmac.getBlockSize()];
+      }
 
       method=guess[KeyExchange.PROPOSAL_ENC_ALGS_CTOS];
       c=Class.forName(getConfig(method));
@@ -1196,11 +1428,20 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
       c2scipher.init(Cipher.ENCRYPT_MODE, Ec2s, IVc2s);
       c2scipher_size=c2scipher.getIVSize();
 
-      method=guess[KeyExchange.PROPOSAL_MAC_ALGS_CTOS];
-      c=Class.forName(getConfig(method));
-      c2smac=(MAC)(c.newInstance());
-      MACc2s = expandKey(buf, K, H, MACc2s, hash, c2smac.getBlockSize());
-      c2smac.init(MACc2s);
+      if(c2scipher instanceof AEADCipher){
+        c2saead=(AEADCipher)c2scipher;
+        c2smac=null;
+        c2setm=false;
+      }
+      else{
+        c2saead=null;
+        method=guess[KeyExchange.PROPOSAL_MAC_ALGS_CTOS];
+        c2setm=method.endsWith("-etm@openssh.com");
+        c=Class.forName(getConfig(method));
+        c2smac=(MAC)(c.newInstance());
+        MACc2s = expandKey(buf, K, H, MACc2s, hash, c2smac.getBlockSize());
+        c2smac.init(MACc2s);
+      }
 
       method=guess[KeyExchange.PROPOSAL_COMP_ALGS_CTOS];
       initDeflater(method);
@@ -1253,29 +1494,37 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
   /*public*/ /*synchronized*/ void write(Packet packet, Channel c, int length) throws Exception{
     long t = getTimeout();
     while(true){
-      if(in_kex){
+      if(in_kex && outq==null){
         if(t>0L && (System.currentTimeMillis()-kex_start_time)>t){
           throw new JSchException("timeout in waiting for rekeying process.");
         }
-        try{Thread.sleep(10);}
-        catch(java.lang.InterruptedException e){};
+        flushBatch();
+        long start=System.nanoTime();
+        waitKex(t);
+        c.addStallTime(System.nanoTime()-start);
         continue;
       }
       synchronized(c){
 
         if(c.rwsize<length){
+          flushBatch();
+          long start=System.nanoTime();
           try{ 
             c.notifyme++;
-            c.wait(100); 
+            // woken by addRemoteWindowSize() and disconnect()
+            while(c.rwsize<=0 && !c.close && c.isConnected()){
+              c.wait(); 
+            }
           }
           catch(java.lang.InterruptedException e){
           }
           finally{
             c.notifyme--;
+            c.addStallTime(System.nanoTime()-start);
           }
         }
 
-        if(in_kex){
+        if(in_kex && outq==null){
           continue;
         }
 
@@ -1302,7 +1551,8 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
           if(len!=length){
             s=packet.shift((int)len, 
                            (c2scipher!=null ? c2scipher_size : 8),
-                           (c2smac!=null ? c2smac.getBlockSize() : 0));
+                           (c2smac!=null ? c2smac.getBlockSize() :
+                            c2saead!=null ? c2saead.getTagSize() : 0));
           }
 	  command=packet.buffer.getCommand();
 	  recipient=c.getRecipient();
@@ -1312,7 +1562,7 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
 	}
       }
       if(sendit){
-	_write(packet);
+	send(packet);
         if(length==0){
           return;
         }
@@ -1320,7 +1570,7 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
       }
 
       synchronized(c){
-        if(in_kex){
+        if(in_kex && outq==null){
           continue;
         }
         if(c.rwsize>=length){
@@ -1340,12 +1590,17 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
         //}
       }
     }
-    _write(packet);
+    send(packet);
   }
 
   public void write(Packet packet) throws Exception{
     // System.err.println("in_kex="+in_kex+" "+(packet.buffer.getCommand()));
     long t = getTimeout();
+    PacketQueue q=outq;
+    if(q!=null && !isKexMessage(packet.buffer.getCommand())){
+      q.put(packet, t);
+      return;
+    }
     while(in_kex){
       if(t>0L &&
          (System.currentTimeMillis()-kex_start_time)>t &&
@@ -1355,29 +1610,202 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
       }
       byte command=packet.buffer.getCommand();
       //System.err.println("command: "+command);
-      if(command==SSH_MSG_KEXINIT ||
-         command==SSH_MSG_NEWKEYS ||
-         command==SSH_MSG_KEXDH_INIT ||
-         command==SSH_MSG_KEXDH_REPLY ||
-         command==SSH_MSG_KEX_DH_GEX_GROUP ||
-         command==SSH_MSG_KEX_DH_GEX_INIT ||
-         command==SSH_MSG_KEX_DH_GEX_REPLY ||
-         command==SSH_MSG_KEX_DH_GEX_REQUEST ||
-         command==SSH_MSG_DISCONNECT){
+      if(isKexMessage(command)){
         break;
       }
-      try{Thread.sleep(10);}
-      catch(java.lang.InterruptedException e){};
+      flushBatch();
+      waitKex(t);
     }
     _write(packet);
   }
 
+  /**
+   * Waits for the running key exchange to finish, being woken by kexDone(),
+   * or for at most t milliseconds so the caller can check its timeout.
+   */
+  private void waitKex(long t){
+    synchronized(kexdone){
+      if(in_kex){
+        try{ kexdone.wait(t); }
+        catch(java.lang.InterruptedException e){ }
+      }
+    }
+  }
+
+  private void kexDone(){
+    in_kex=false;
+    synchronized(kexdone){
+      kexdone.notifyAll();
+    }
+  }
+
+  // messages that may be sent while a key exchange is in progress
+  private static boolean isKexMessage(byte command){
+    return command==SSH_MSG_KEXINIT ||
+           command==SSH_MSG_NEWKEYS ||
+           command==SSH_MSG_KEXDH_INIT ||
+           command==SSH_MSG_KEXDH_REPLY ||
+           command==SSH_MSG_KEX_DH_GEX_GROUP ||
+           command==SSH_MSG_KEX_DH_GEX_INIT ||
+           command==SSH_MSG_KEX_DH_GEX_REPLY ||
+           command==SSH_MSG_KEX_DH_GEX_REQUEST ||
+           command==SSH_MSG_DISCONNECT;
+  }
+
+  // Channel data goes through the writer thread's queue when there is one.
+  private void send(Packet packet) throws Exception{
+    PacketQueue q=outq;
+    if(q!=null){
+      q.put(packet, getTimeout());
+    }
+    else{
+      _write(packet);
+    }
+  }
+
+  // Number of threads in or waiting for _write().  The one that takes it
+  // back to zero flushes IO's write buffer, so packets queued up behind the
+  // lock go out in one socket write.
+  private java.util.concurrent.atomic.AtomicInteger writers=
+    new java.util.concurrent.atomic.AtomicInteger();
+  private volatile Thread batcher=null;   // thread with an open write batch
+
   private void _write(Packet packet) throws Exception{
+    writers.incrementAndGet();
+    synchronized(lock){
+      CompressionTuner tu=null;
+      long t=0;
+      try{
+        encode(packet);
+        if((tu=tuner)!=null) t=System.nanoTime();
+        if(io!=null){
+          if(io.isBuffered()){
+            io.put(packet,
+                   writers.get()==1 && batcher!=Thread.currentThread());
+          }
+          else{
+            io.put(packet);
+          }
+          seqo++;
+        }
+      }
+      finally{
+        int n=writers.decrementAndGet();
+        if(io!=null &&
+           ((n==0 && batcher!=Thread.currentThread()) || io.isFlushDue())){
+          io.flush();
+        }
+        if(tu!=null) tu.wrote(System.nanoTime()-t);
+      }
+    }
+  }
+
+  // Optional writer thread (config "writer_thread").  Channel threads
+  // queue fully built packets in outq and return; the writer encodes and
+  // sends them, holding off while a key exchange is in progress instead of
+  // every producer sleep-polling on in_kex.  Key exchange messages are
+  // still written directly by the thread that makes them.
+  private volatile PacketQueue outq=null;
+  private Thread writerThread=null;
+  private final Object kexdone=new Object();
+
+  private void startWriter(){
+    int size=256;
+    try{ size=Integer.parseInt(getConfig("writer_queue_size")); }
+    catch(Exception e){ }
+    outq=new PacketQueue(size);
+    writerThread=new Thread(new Runnable(){
+        public void run(){ writer(); }
+      });
+    writerThread.setName("Writer thread "+host+" session");
+    if(daemon_thread){
+      writerThread.setDaemon(daemon_thread);
+    }
+    writerThread.start();
+  }
+
+  private void writer(){
+    PacketQueue q=outq;
+    try{
+      Packet packet;
+      while(q!=null && (packet=q.take())!=null){
+        while(true){
+          synchronized(lock){
+            // checked under lock, so nothing slips in after a KEXINIT
+            if(!in_kex){
+              encode(packet);
+              CompressionTuner tu=tuner;
+              long t=(tu!=null) ? System.nanoTime() : 0;
+              if(io!=null){
+                io.put(packet, q.isEmpty());
+                seqo++;
+                if(q.isEmpty() || io.isFlushDue()){
+                  io.flush();
+                }
+              }
+              if(tu!=null) tu.wrote(System.nanoTime()-t);
+              break;
+            }
+          }
+          synchronized(kexdone){
+            while(in_kex && isConnected){
+              kexdone.wait();
+            }
+          }
+          if(!isConnected){
+            return;
+          }
+        }
+        q.recycle(packet);
+      }
+    }
+    catch(Exception e){
+      if(JSch.getLogger().isEnabled(Logger.INFO)){
+        JSch.getLogger().log(Logger.INFO,
+                             "Caught an exception, leaving writer thread due to " + e.getMessage());
+      }
+      try{ disconnect(); } catch(Exception ee){ }
+    }
+  }
+
+  /**
+   * Starts a write batch for the calling thread: until endBatch(), its own
+   * packets are held in the write buffer (up to write_buffer_size bytes or
+   * write_buffer_delay ms) instead of being flushed one by one.  A write
+   * from any other thread still flushes everything.  The batching thread
+   * must call flushBatch() before it blocks on anything but Session.write()
+   * itself, which flushes on its own before waiting for window space or
+   * rekeying.  Only one thread batches at a time, others just don't.
+   */
+  void beginBatch(){
+    synchronized(lock){
+      if(batcher==null){
+        batcher=Thread.currentThread();
+      }
+    }
+  }
+
+  void endBatch() throws IOException{
+    synchronized(lock){
+      if(batcher==Thread.currentThread()){
+        batcher=null;
+        if(io!=null){
+          io.flush();
+        }
+      }
+    }
+  }
+
+  /**
+   * Explicit flush point inside a batch.
+   */
+  void flushBatch() throws IOException{
+    if(batcher!=Thread.currentThread()){
+      return;
+    }
     synchronized(lock){
-      encode(packet);
       if(io!=null){
-        io.put(packet);
-        seqo++;
+        io.flush();
       }
     }
   }
@@ -1464,18 +1892,7 @@ catch(Exception e){
 break;
 }
 	  int len=length[0];
-	  channel.setLocalWindowSize(channel.lwsize-len);
- 	  if(channel.lwsize<channel.lwsize_max/2){
-            packet.reset();
-	    buf.putByte((byte)SSH_MSG_CHANNEL_WINDOW_ADJUST);
-	    buf.putInt(channel.getRecipient());
-	    buf.putInt(channel.lwsize_max-channel.lwsize);
-            synchronized(channel){
-              if(!channel.close)
-                write(packet);
-            }
-	    channel.setLocalWindowSize(channel.lwsize_max);
-	  }
+	  channel.useLocalWindow(len, false);
 	  break;
 
         case SSH_MSG_CHANNEL_EXTENDED_DATA:
@@ -1497,18 +1914,7 @@ break;
 	  channel.write_ext(foo, start[0], length[0]);
 
 	  len=length[0];
-	  channel.setLocalWindowSize(channel.lwsize-len);
- 	  if(channel.lwsize<channel.lwsize_max/2){
-            packet.reset();
-	    buf.putByte((byte)SSH_MSG_CHANNEL_WINDOW_ADJUST);
-	    buf.putInt(channel.getRecipient());
-	    buf.putInt(channel.lwsize_max-channel.lwsize);
-            synchronized(channel){
-              if(!channel.close)
-                write(packet);
-            }
-	    channel.setLocalWindowSize(channel.lwsize_max);
-	  }
+	  channel.useLocalWindow(len, true);
 	  break;
 
 	case SSH_MSG_CHANNEL_WINDOW_ADJUST:
@@ -1691,7 +2097,7 @@ break;
       }
     }
     catch(Exception e){
-      in_kex=false;
+      kexDone();
       if(JSch.getLogger().isEnabled(Logger.INFO)){
         JSch.getLogger().log(Logger.INFO,
                              "Caught an exception, leaving main loop due to " + e.getMessage());
@@ -1747,6 +2153,14 @@ break;
         connectThread=null;
       }
     }
+    PacketQueue q=outq;
+    outq=null;
+    if(q!=null){
+      q.close();
+    }
+    synchronized(kexdone){
+      kexdone.notifyAll();
+    }
     thread=null;
     try{
       if(io!=null){
@@ -2223,6 +2637,7 @@ break;
   private void initDeflater(String method) throws JSchException{
     if(method.equals("none")){
       deflater=null;
+      tuner=null;
       return;
     }
     String foo=getConfig(method);
@@ -2233,9 +2648,20 @@ break;
           Class c=Class.forName(foo);
           deflater=(Compression)(c.newInstance());
           int level=6;
-          try{ level=Integer.parseInt(getConfig("compression_level"));}
-          catch(Exception ee){ }
+          String _level=getConfig("compression_level");
+          if("adaptive".equals(_level) &&
+             deflater instanceof AdjustableCompression){
+            // a rekey starts a new deflater at the level reached so far
+            if(tuner==null) tuner=new CompressionTuner(level);
+            level=tuner.getLevel();
+          }
+          else{
+            tuner=null;
+            try{ level=Integer.parseInt(_level);}
+            catch(Exception ee){ }
+          }
           deflater.init(Compression.DEFLATER, level);
+          deflateStats.level=level;
         }
         catch(NoClassDefFoundError ee){
           throw new JSchException(ee.toString(), ee);
@@ -2502,6 +2928,10 @@ break;
     catch(Exception e){
       return false;
     }
+    catch(LinkageError e){
+      // a class the cipher needs is missing on this platform
+      return false;
+    }
   }
 
   private String[] checkKexes(String kexes){
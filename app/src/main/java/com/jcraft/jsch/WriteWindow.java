@@ -0,0 +1,106 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+/**
+ * How many SFTP WRITE requests an upload keeps outstanding.  It starts at
+ * ChannelSftp's bulk request count and is adjusted once per round trip the
+ * way TCP Vegas does it: the smallest ack time ever seen is the round trip
+ * of an empty path, and limit*(1-base/rtt), with rtt the smallest ack time
+ * of the last round, is how many requests only sat in a queue somewhere.
+ * Fewer than ALPHA queued grows the limit by one, more than BETA shrinks it
+ * by one.  Until the queue first builds up, the limit doubles every round
+ * instead.  It never goes past what the peer's channel window holds, where
+ * Session.write() would just block.
+ */
+final class WriteWindow{
+  static final int ALPHA=2;
+  static final int BETA=6;
+  static final int MIN=2;
+  static final int MAX=512;
+
+  private final int initial;
+  private final int max;
+  private int limit;
+  private boolean slowstart=true;
+  private final long[] sent;        // send time by request id
+  private int lastid;
+  private int roundend;
+  private long basertt=Long.MAX_VALUE;
+  private long roundrtt=Long.MAX_VALUE;
+  private int window;               // requests the peer's window held at most
+
+  WriteWindow(int initial){
+    this.initial=initial;
+    this.limit=initial;
+    this.max=Math.max(initial, MAX);
+    int n=MAX;
+    while(n<max) n<<=1;
+    sent=new long[n];
+  }
+
+  int getLimit(){ return limit; }
+
+  void sent(int id, long now){
+    sent[id&(sent.length-1)]=now;
+    if(lastid==0){
+      roundend=id;
+    }
+    lastid=id;
+  }
+
+  /**
+   * Accounts for the ack of request id; room is how many requests the
+   * peer's window takes right now, counting the ones outstanding.
+   */
+  void acked(int id, long now, int room){
+    long rtt=now-sent[id&(sent.length-1)];
+    if(rtt<basertt) basertt=rtt;
+    if(rtt<roundrtt) roundrtt=rtt;
+    if(room>window) window=room;
+    if(id-roundend<0) return;
+
+    long queued=roundrtt>0 ? limit*(roundrtt-basertt)/roundrtt : 0;
+    if(slowstart){
+      if(queued>ALPHA) slowstart=false;
+      else limit*=2;
+    }
+    else if(queued<ALPHA){
+      limit++;
+    }
+    else if(queued>BETA){
+      limit--;
+    }
+    limit=Math.min(limit, Math.min(max, Math.max(initial, window)));
+    limit=Math.max(limit, Math.min(initial, MIN));
+    roundend=lastid;
+    roundrtt=Long.MAX_VALUE;
+  }
+}
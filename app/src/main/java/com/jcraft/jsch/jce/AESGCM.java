@@ -0,0 +1,113 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2008-2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jce;
+
+import com.jcraft.jsch.AEADCipher;
+import java.lang.reflect.Constructor;
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.spec.*;
+
+abstract class AESGCM implements AEADCipher{
+  private static final int ivsize=16;
+  private static final int noncesize=12;
+  private static final int tagsize=16;
+  // GCMParameterSpec(int, byte[]), looked up as Android has it only from API 19
+  private static final Constructor gcmspec=gcmSpec();
+  private javax.crypto.Cipher cipher;
+  private SecretKeySpec keyspec;
+  private int mode;
+  private byte[] nonce=new byte[noncesize];
+  public int getIVSize(){return ivsize;} 
+  public int getTagSize(){return tagsize;}
+  public void init(int mode, byte[] key, byte[] iv) throws Exception{
+    String pad="NoPadding";      
+    byte[] tmp;
+    if(key.length>getBlockSize()){
+      tmp=new byte[getBlockSize()];
+      System.arraycopy(key, 0, tmp, 0, tmp.length);
+      key=tmp;
+    }
+    System.arraycopy(iv, 0, nonce, 0, noncesize);
+    this.mode=(mode==ENCRYPT_MODE?
+               javax.crypto.Cipher.ENCRYPT_MODE:
+               javax.crypto.Cipher.DECRYPT_MODE);
+
+    try{
+      if(gcmspec==null){
+        throw new Exception("GCMParameterSpec is not available");
+      }
+      keyspec=new SecretKeySpec(key, "AES");
+      cipher=javax.crypto.Cipher.getInstance("AES/GCM/"+pad);
+      synchronized(javax.crypto.Cipher.class){
+        start();
+      }
+    }
+    catch(Exception e){
+      cipher=null;
+      throw e;
+    }
+  }
+  private static Constructor gcmSpec(){
+    try{
+      Class c=Class.forName("javax.crypto.spec.GCMParameterSpec");
+      return c.getConstructor(new Class[]{int.class, byte[].class});
+    }
+    catch(Exception e){
+      return null;
+    }
+  }
+  private void start() throws Exception{
+    AlgorithmParameterSpec spec=
+      (AlgorithmParameterSpec)gcmspec.newInstance(new Object[]{Integer.valueOf(tagsize*8), nonce});
+    cipher.init(mode, keyspec, spec);
+  }
+  public void update(byte[] foo, int s1, int len, byte[] bar, int s2) throws Exception{
+    cipher.update(foo, s1, len, bar, s2);
+  }
+  public void update(int seq){
+  }
+  public void updateAAD(byte[] foo, int s1, int len) throws Exception{
+    cipher.updateAAD(foo, s1, len);
+  }
+  public void doFinal(byte[] foo, int s1, int len, byte[] bar, int s2) throws Exception{
+    if(mode==javax.crypto.Cipher.DECRYPT_MODE){
+      len+=tagsize;
+    }
+    cipher.doFinal(foo, s1, len, bar, s2);
+
+    // RFC 5647 7.1: the last 8 bytes of the nonce count the packets
+    for(int i=noncesize-1; i>=4; i--){
+      if(++nonce[i]!=0) break;
+    }
+    start();
+  }
+
+  public boolean isCBC(){return false; }
+}
@@ -0,0 +1,143 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jce;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * zlib through the platform's java.util.zip, which is native zlib on
+ * both the JDK and Android.  Needs Deflater.SYNC_FLUSH (Java 7, Android
+ * API 19); JSch only makes it the default for "zlib" where that exists.
+ * Buffer handling is the same as in jcraft.Compression.
+ */
+public class Compression implements com.jcraft.jsch.AdjustableCompression {
+  static private final int BUF_SIZE=4096;
+  private final int buffer_margin=32+64; // max padding + max mac
+  private Deflater deflater;
+  private Inflater inflater;
+  private int level;
+  private int newlevel;
+  private byte[] inbuf;
+  private byte[] inflated_buf;
+
+  public Compression(){
+  }
+
+  public void init(int type, int level){
+    if(type==DEFLATER){
+      deflater=new Deflater(level);
+      inbuf=new byte[BUF_SIZE];
+      this.level=this.newlevel=level;
+    }
+    else if(type==INFLATER){
+      inflater=new Inflater();
+      inflated_buf=new byte[BUF_SIZE];
+    }
+  }
+
+  public void setLevel(int level){
+    newlevel=level;
+  }
+
+  public byte[] compress(byte[] buf, int start, int[] len){
+    int n=len[0]-start;
+    if(inbuf.length<n){
+      inbuf=new byte[Math.max(n, inbuf.length*2)];
+    }
+    System.arraycopy(buf, start, inbuf, 0, n);
+
+    int index=start;
+    int limit=buf.length-buffer_margin;
+    if(newlevel!=level){
+      // A deflate() that changes the level only does deflateParams() with
+      // its own flush, so let it have no input; the last packet ended in a
+      // sync flush, so there is nothing to write either.
+      deflater.setLevel(newlevel);
+      deflater.setInput(inbuf, 0, 0);
+      index+=deflater.deflate(buf, index, limit-index, Deflater.SYNC_FLUSH);
+      level=newlevel;
+    }
+    deflater.setInput(inbuf, 0, n);
+
+    while(true){
+      if(index>=limit){
+        // see jcraft.Compression: bytes past the payload come along
+        byte[] foo=new byte[buf.length*2];
+        System.arraycopy(buf, 0, foo, 0, buf.length);
+        limit+=buf.length;
+        buf=foo;
+      }
+      index+=deflater.deflate(buf, index, limit-index, Deflater.SYNC_FLUSH);
+      // SYNC_FLUSH is done once it leaves room to spare
+      if(index<limit){
+        break;
+      }
+    }
+
+    len[0]=index;
+    return buf;
+  }
+
+  public byte[] uncompress(byte[] buffer, int start, int[] length){
+    byte[] out=inflated_buf;
+    if(out.length<start+length[0]*2){
+      out=new byte[Math.max(start+length[0]*2, out.length*2)];
+    }
+    inflater.setInput(buffer, start, length[0]);
+
+    int index=start;
+    try{
+      while(true){
+        int n=inflater.inflate(out, index, out.length-index);
+        index+=n;
+        if(index==out.length){
+          byte[] foo=new byte[out.length*2];
+          System.arraycopy(out, 0, foo, 0, index);
+          out=foo;
+          continue;
+        }
+        if(n==0 || inflater.needsInput()){
+          break;
+        }
+      }
+    }
+    catch(DataFormatException e){
+      System.err.println("uncompress: inflate "+e);
+      return null;
+    }
+
+    System.arraycopy(buffer, 0, out, 0, start);
+    length[0]=index-start;
+    inflated_buf=buffer;   // the caller's array is ours now
+    return out;
+  }
+}
@@ -67,13 +67,11 @@ public class Random implements com.jcraft.jsch.Random{
     */
   }
   public void fill(byte[] foo, int start, int len){
-    /*
-    // This case will not become true in our usage.
+    // RandomPool refills its whole buffer
     if(start==0 && foo.length==len){
       random.nextBytes(foo);
       return;
     }
-    */
     if(len>tmp.length){ tmp=new byte[len]; }
     random.nextBytes(tmp);
     System.arraycopy(tmp, 0, foo, start, len);
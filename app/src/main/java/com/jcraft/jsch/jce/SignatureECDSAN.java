@@ -171,11 +171,11 @@ public abstract class SignatureECDSAN implements com.jcraft.jsch.SignatureECDSA
     return signature.verify(sig); 
   }
 
+  // buf belongs to the caller (KeyPairECDSA's key arrays), so no bzero here
   private byte[] insert0(byte[] buf){
     if ((buf[0] & 0x80) == 0) return buf;
     byte[] tmp = new byte[buf.length+1];
     System.arraycopy(buf, 0, tmp, 1, buf.length);
-    bzero(buf);
     return tmp;
   }
   private byte[] chop0(byte[] buf){
@@ -0,0 +1,316 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2012-2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jce;
+
+import com.jcraft.jsch.MAC;
+import javax.crypto.spec.*;
+
+/**
+ * UMAC (RFC 4418) as used by OpenSSH's umac-64@openssh.com and
+ * umac-128@openssh.com: AES-128 keyed, with the packet sequence number as
+ * the 64 bit nonce instead of a prefix of the message.
+ *
+ * Laid out after Krovetz's reference code.  Each 1024 byte chunk of the
+ * message goes through NH, one pass per 32 bits of tag; messages longer
+ * than one chunk combine the NH results with the 64 bit POLY of L2-HASH,
+ * and L3-HASH turns each pass into 32 bits of tag, which is XORed with
+ * AES of the nonce.  SSH packets are far below the 2^24 bytes at which
+ * L2-HASH would switch to 128 bit POLY, so that is not implemented.
+ */
+abstract class UMAC implements MAC{
+  private static final long M32=0xffffffffL;
+  private static final long M36=0xfffffffffL;
+  private static final long P36=0xffffffffbL;           // 2^36-5
+  private static final long P64=0xffffffffffffffc5L;    // 2^64-59
+  private static final int L1_KEY_LEN=1024;
+
+  protected String name;
+  protected int bsize;           // tag length, 8 or 16
+  private int streams;           // bsize/4
+
+  private javax.crypto.Cipher aes;
+  private int[] nhkey;
+  private long[] polykey;
+  private long[] ipkey;
+  private int[] iptrans;
+
+  private long[] nh;             // NH sums of the current chunk
+  private long[] poly;           // L2-HASH accumulators
+  private int chunkpos;          // bytes of the current chunk hashed
+  private boolean longmsg;       // more than one chunk
+  private final byte[] buf=new byte[32];
+  private int buflen;
+
+  private final byte[] nonce=new byte[16];
+  private final byte[] pad=new byte[16];
+  private final byte[] padnonce=new byte[16];
+  private boolean padvalid;      // pad is AES of padnonce
+
+  public String getName(){ return name; }
+  public int getBlockSize(){ return bsize; }
+
+  public void init(byte[] key) throws Exception{
+    byte[] tmp=new byte[16];
+    System.arraycopy(key, 0, tmp, 0, 16);
+    aes=javax.crypto.Cipher.getInstance("AES/ECB/NoPadding");
+    aes.init(javax.crypto.Cipher.ENCRYPT_MODE, new SecretKeySpec(tmp, "AES"));
+
+    streams=bsize/4;
+    byte[] foo=kdf(1, L1_KEY_LEN+16*(streams-1));
+    nhkey=new int[foo.length/4];
+    for(int i=0; i<nhkey.length; i++){
+      nhkey[i]=getInt(foo, i*4);
+    }
+    foo=kdf(2, 24*streams);
+    polykey=new long[streams];
+    for(int i=0; i<streams; i++){
+      polykey[i]=getLong(foo, 24*i)&0x01ffffff01ffffffL;
+    }
+    // the upper halves of L2-HASH's output are always zero, so only the
+    // last 4 of each 8 L3-HASH keys matter
+    foo=kdf(3, 64*streams);
+    ipkey=new long[4*streams];
+    for(int i=0; i<streams; i++){
+      for(int j=0; j<4; j++){
+        ipkey[4*i+j]=remainder36(getLong(foo, 64*i+32+8*j));
+      }
+    }
+    foo=kdf(4, 4*streams);
+    iptrans=new int[streams];
+    for(int i=0; i<streams; i++){
+      iptrans[i]=getInt(foo, 4*i);
+    }
+
+    tmp=kdf(0, 16);
+    aes.init(javax.crypto.Cipher.ENCRYPT_MODE, new SecretKeySpec(tmp, "AES"));
+    padvalid=false;
+    nh=new long[streams];
+    poly=new long[streams];
+    reset();
+  }
+
+  // RFC 4418 3.2.1 KDF
+  private byte[] kdf(int index, int len) throws Exception{
+    byte[] in=new byte[16];
+    byte[] out=new byte[(len+15)/16*16];
+    in[7]=(byte)index;
+    for(int i=0; i<out.length/16; i++){
+      in[15]=(byte)(i+1);
+      aes.doFinal(in, 0, 16, out, i*16);
+    }
+    if(out.length==len) return out;
+    byte[] tmp=new byte[len];
+    System.arraycopy(out, 0, tmp, 0, len);
+    return tmp;
+  }
+
+  private static long remainder36(long k){
+    // k mod 2^36-5 for an unsigned 64 bit k
+    long r=(k>>>36)*5+(k&M36);       // < 2^36+5*2^28
+    r=(r>>>36)*5+(r&M36);
+    if(r>=P36) r-=P36;
+    return r;
+  }
+
+  private void reset(){
+    for(int i=0; i<streams; i++){
+      nh[i]=0;
+      poly[i]=1;
+    }
+    chunkpos=0;
+    longmsg=false;
+    buflen=0;
+  }
+
+  /**
+   * The sequence number is the nonce, as a 64 bit big endian integer.
+   */
+  public void update(int seq){
+    nonce[4]=(byte)(seq>>>24);
+    nonce[5]=(byte)(seq>>>16);
+    nonce[6]=(byte)(seq>>>8);
+    nonce[7]=(byte)seq;
+  }
+
+  public void update(byte[] foo, int s, int l){
+    if(buflen>0){
+      int n=Math.min(32-buflen, l);
+      System.arraycopy(foo, s, buf, buflen, n);
+      buflen+=n;
+      s+=n;
+      l-=n;
+      if(buflen<32) return;
+      nhBlock(buf, 0);
+      buflen=0;
+    }
+    while(l>=32){
+      nhBlock(foo, s);
+      s+=32;
+      l-=32;
+    }
+    if(l>0){
+      System.arraycopy(foo, s, buf, 0, l);
+      buflen=l;
+    }
+  }
+
+  private void nhBlock(byte[] b, int off){
+    if(chunkpos==L1_KEY_LEN){
+      endChunk(L1_KEY_LEN);
+    }
+    long m0=getIntLE(b, off)&M32, m1=getIntLE(b, off+4)&M32;
+    long m2=getIntLE(b, off+8)&M32, m3=getIntLE(b, off+12)&M32;
+    long m4=getIntLE(b, off+16)&M32, m5=getIntLE(b, off+20)&M32;
+    long m6=getIntLE(b, off+24)&M32, m7=getIntLE(b, off+28)&M32;
+    int k=chunkpos/4;
+    for(int i=0; i<streams; i++, k+=4){
+      int[] key=nhkey;
+      nh[i]+=((m0+key[k  ])&M32)*((m4+key[k+4])&M32)+
+             ((m1+key[k+1])&M32)*((m5+key[k+5])&M32)+
+             ((m2+key[k+2])&M32)*((m6+key[k+6])&M32)+
+             ((m3+key[k+3])&M32)*((m7+key[k+7])&M32);
+    }
+    chunkpos+=32;
+  }
+
+  // L1-HASH adds the chunk's length in bits, L2-HASH takes it from there
+  private void endChunk(int len){
+    for(int i=0; i<streams; i++){
+      long m=nh[i]+len*8L;
+      if((m>>>32)==M32){
+        poly[i]=poly64(poly[i], polykey[i], P64-1);
+        poly[i]=poly64(poly[i], polykey[i], m-59);
+      }
+      else{
+        poly[i]=poly64(poly[i], polykey[i], m);
+      }
+      nh[i]=0;
+    }
+    chunkpos=0;
+    longmsg=true;
+  }
+
+  private static long poly64(long cur, long key, long data){
+    long key_hi=key>>>32, key_lo=key&M32;
+    long cur_hi=cur>>>32, cur_lo=cur&M32;
+    long x=key_hi*cur_lo+cur_hi*key_lo;
+    long res=(key_hi*cur_hi+(x>>>32))*59+key_lo*cur_lo;
+    long t=x<<32;
+    res+=t;
+    if(ult(res, t)) res+=59;
+    res+=data;
+    if(ult(res, data)) res+=59;
+    return res;
+  }
+
+  private static boolean ult(long a, long b){
+    return (a^Long.MIN_VALUE)<(b^Long.MIN_VALUE);
+  }
+
+  public void doFinal(byte[] out, int offset){
+    int last=chunkpos+buflen;
+    if(buflen>0 || chunkpos==0){
+      if(chunkpos==L1_KEY_LEN){
+        endChunk(L1_KEY_LEN);
+        last=buflen;
+      }
+      for(int i=buflen; i<32; i++) buf[i]=0;
+      nhBlock(buf, 0);
+    }
+
+    boolean l2=longmsg;
+    if(l2){
+      endChunk(last);
+    }
+    for(int i=0; i<streams; i++){
+      long y;
+      if(l2){
+        y=poly[i];
+        if(!ult(y, P64)) y-=P64;
+      }
+      else{
+        y=nh[i]+last*8L;
+      }
+      // L3-HASH
+      long t=ipkey[4*i  ]*((y>>>48)&0xffff)+
+             ipkey[4*i+1]*((y>>>32)&0xffff)+
+             ipkey[4*i+2]*((y>>>16)&0xffff)+
+             ipkey[4*i+3]*((y     )&0xffff);
+      t=(t&M36)+5*(t>>>36);
+      if(t>=P36) t-=P36;
+      putInt(out, offset+4*i, (int)t^iptrans[i]);
+    }
+    reset();
+
+    // PDF: AES of the nonce, of which an 8 byte tag takes one half,
+    // so two packets in a row need only one AES
+    int ndx=0;
+    if(bsize==8){
+      ndx=nonce[7]&1;
+      nonce[7]&=~1;
+    }
+    if(!padvalid || !regionEquals(padnonce, nonce, 8)){
+      System.arraycopy(nonce, 0, padnonce, 0, 8);
+      try{
+        aes.doFinal(padnonce, 0, 16, pad, 0);
+        padvalid=true;
+      }
+      catch(Exception e){
+        System.err.println(e);
+      }
+    }
+    for(int i=0; i<bsize; i++){
+      out[offset+i]^=pad[ndx*8+i];
+    }
+  }
+
+  private static boolean regionEquals(byte[] a, byte[] b, int len){
+    for(int i=0; i<len; i++){
+      if(a[i]!=b[i]) return false;
+    }
+    return true;
+  }
+
+  private static int getIntLE(byte[] b, int i){
+    return (b[i]&0xff)|((b[i+1]&0xff)<<8)|((b[i+2]&0xff)<<16)|((b[i+3]&0xff)<<24);
+  }
+  private static int getInt(byte[] b, int i){
+    return ((b[i]&0xff)<<24)|((b[i+1]&0xff)<<16)|((b[i+2]&0xff)<<8)|(b[i+3]&0xff);
+  }
+  private static long getLong(byte[] b, int i){
+    return ((getInt(b, i)&M32)<<32)|(getInt(b, i+4)&M32);
+  }
+  private static void putInt(byte[] b, int i, int v){
+    b[i]=(byte)(v>>>24);
+    b[i+1]=(byte)(v>>>16);
+    b[i+2]=(byte)(v>>>8);
+    b[i+3]=(byte)v;
+  }
+}
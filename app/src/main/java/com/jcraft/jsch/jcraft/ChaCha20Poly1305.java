@@ -0,0 +1,337 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2006-2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jcraft;
+
+import com.jcraft.jsch.AEADCipher;
+import javax.crypto.BadPaddingException;
+
+/**
+ * chacha20-poly1305@openssh.com, see PROTOCOL.chacha20poly1305 in OpenSSH.
+ *
+ * The 64 byte key is two ChaCha20 keys: the second encrypts the packet
+ * length, the first the rest of the packet, each with the packet sequence
+ * number as nonce.  The first 32 bytes of the main key stream (block 0) are
+ * the one-time Poly1305 key, the payload is encrypted from block 1 on, and
+ * the tag covers the encrypted length and payload.
+ *
+ * Pure Java, so it runs at the same speed with or without AES instructions,
+ * and allocates nothing per packet.
+ */
+public class ChaCha20Poly1305 implements AEADCipher{
+  private static final int ivsize=8;    // block size packets are padded to
+  private static final int bsize=64;    // key size
+  private static final int tagsize=16;
+
+  private int mode;
+  private final int[] main=new int[16];     // ChaCha20 states
+  private final int[] header=new int[16];
+  private final int[] x=new int[16];
+  private final byte[] block=new byte[64];  // key stream
+  private final byte[] aad=new byte[4];     // encrypted length
+  private final byte[] tag=new byte[tagsize];
+  private final Poly1305 poly=new Poly1305();
+
+  public int getIVSize(){return ivsize;}
+  public int getBlockSize(){return bsize;}
+  public int getTagSize(){return tagsize;}
+  public boolean isCBC(){return false; }
+
+  public void init(int mode, byte[] key, byte[] iv) throws Exception{
+    this.mode=mode;
+    setKey(main, key, 0);
+    setKey(header, key, 32);
+  }
+
+  public void update(int seq){
+    // the nonce is the sequence number as a 64 bit big endian integer
+    main[14]=header[14]=0;
+    main[15]=header[15]=Integer.reverseBytes(seq);
+  }
+
+  public void updateAAD(byte[] foo, int s1, int len) throws Exception{
+    if(mode==ENCRYPT_MODE){
+      crypt(header, 0, foo, s1, len, foo, s1);
+      System.arraycopy(foo, s1, aad, 0, 4);
+    }
+    else{
+      System.arraycopy(foo, s1, aad, 0, 4);
+      crypt(header, 0, foo, s1, len, foo, s1);
+    }
+  }
+
+  public void doFinal(byte[] foo, int s1, int len, byte[] bar, int s2) throws Exception{
+    keyStream(main, 0);
+    poly.init(block);
+    poly.update(aad, 0, 4);
+    if(mode==ENCRYPT_MODE){
+      crypt(main, 1, foo, s1, len, bar, s2);
+      poly.update(bar, s2, len);
+      poly.doFinal(bar, s2+len);
+    }
+    else{
+      poly.update(foo, s1, len);
+      poly.doFinal(tag, 0);
+      int diff=0;
+      for(int i=0; i<tagsize; i++){
+        diff|=tag[i]^foo[s1+len+i];
+      }
+      if(diff!=0){
+        throw new BadPaddingException("MAC Error");
+      }
+      crypt(main, 1, foo, s1, len, bar, s2);
+    }
+  }
+
+  public void update(byte[] foo, int s1, int len, byte[] bar, int s2) throws Exception{
+    crypt(main, 1, foo, s1, len, bar, s2);
+  }
+
+  private static void setKey(int[] state, byte[] key, int off){
+    state[0]=0x61707865;
+    state[1]=0x3320646e;
+    state[2]=0x79622d32;
+    state[3]=0x6b206574;
+    for(int i=0; i<8; i++){
+      state[4+i]=getIntLE(key, off+i*4);
+    }
+  }
+
+  // XORs len bytes of the key stream, starting at block counter, into bar
+  private void crypt(int[] state, int counter, byte[] foo, int s1, int len, byte[] bar, int s2){
+    state[12]=counter;
+    state[13]=0;
+    while(len>=64){
+      rounds(state);
+      for(int i=0; i<16; i++){
+        int k=x[i];
+        int j=i*4;
+        bar[s2+j  ]=(byte)(foo[s1+j  ]^k);
+        bar[s2+j+1]=(byte)(foo[s1+j+1]^(k>>>8));
+        bar[s2+j+2]=(byte)(foo[s1+j+2]^(k>>>16));
+        bar[s2+j+3]=(byte)(foo[s1+j+3]^(k>>>24));
+      }
+      if(++state[12]==0) state[13]++;
+      s1+=64;
+      s2+=64;
+      len-=64;
+    }
+    if(len>0){
+      keyStream(state, state[12]);
+      for(int i=0; i<len; i++){
+        bar[s2+i]=(byte)(foo[s1+i]^block[i]);
+      }
+    }
+  }
+
+  // one block of key stream into block
+  private void keyStream(int[] state, int counter){
+    state[12]=counter;
+    state[13]=0;
+    rounds(state);
+    for(int i=0; i<16; i++){
+      int k=x[i];
+      block[i*4  ]=(byte)k;
+      block[i*4+1]=(byte)(k>>>8);
+      block[i*4+2]=(byte)(k>>>16);
+      block[i*4+3]=(byte)(k>>>24);
+    }
+  }
+
+  // the block function, x=state+rounds(state)
+  private void rounds(int[] state){
+    int x0=state[0], x1=state[1], x2=state[2], x3=state[3];
+    int x4=state[4], x5=state[5], x6=state[6], x7=state[7];
+    int x8=state[8], x9=state[9], x10=state[10], x11=state[11];
+    int x12=state[12], x13=state[13], x14=state[14], x15=state[15];
+    for(int i=0; i<10; i++){
+      x0+=x4; x12=Integer.rotateLeft(x12^x0, 16);
+      x8+=x12; x4=Integer.rotateLeft(x4^x8, 12);
+      x0+=x4; x12=Integer.rotateLeft(x12^x0, 8);
+      x8+=x12; x4=Integer.rotateLeft(x4^x8, 7);
+      x1+=x5; x13=Integer.rotateLeft(x13^x1, 16);
+      x9+=x13; x5=Integer.rotateLeft(x5^x9, 12);
+      x1+=x5; x13=Integer.rotateLeft(x13^x1, 8);
+      x9+=x13; x5=Integer.rotateLeft(x5^x9, 7);
+      x2+=x6; x14=Integer.rotateLeft(x14^x2, 16);
+      x10+=x14; x6=Integer.rotateLeft(x6^x10, 12);
+      x2+=x6; x14=Integer.rotateLeft(x14^x2, 8);
+      x10+=x14; x6=Integer.rotateLeft(x6^x10, 7);
+      x3+=x7; x15=Integer.rotateLeft(x15^x3, 16);
+      x11+=x15; x7=Integer.rotateLeft(x7^x11, 12);
+      x3+=x7; x15=Integer.rotateLeft(x15^x3, 8);
+      x11+=x15; x7=Integer.rotateLeft(x7^x11, 7);
+
+      x0+=x5; x15=Integer.rotateLeft(x15^x0, 16);
+      x10+=x15; x5=Integer.rotateLeft(x5^x10, 12);
+      x0+=x5; x15=Integer.rotateLeft(x15^x0, 8);
+      x10+=x15; x5=Integer.rotateLeft(x5^x10, 7);
+      x1+=x6; x12=Integer.rotateLeft(x12^x1, 16);
+      x11+=x12; x6=Integer.rotateLeft(x6^x11, 12);
+      x1+=x6; x12=Integer.rotateLeft(x12^x1, 8);
+      x11+=x12; x6=Integer.rotateLeft(x6^x11, 7);
+      x2+=x7; x13=Integer.rotateLeft(x13^x2, 16);
+      x8+=x13; x7=Integer.rotateLeft(x7^x8, 12);
+      x2+=x7; x13=Integer.rotateLeft(x13^x2, 8);
+      x8+=x13; x7=Integer.rotateLeft(x7^x8, 7);
+      x3+=x4; x14=Integer.rotateLeft(x14^x3, 16);
+      x9+=x14; x4=Integer.rotateLeft(x4^x9, 12);
+      x3+=x4; x14=Integer.rotateLeft(x14^x3, 8);
+      x9+=x14; x4=Integer.rotateLeft(x4^x9, 7);
+    }
+    x[0]=x0+state[0]; x[1]=x1+state[1]; x[2]=x2+state[2]; x[3]=x3+state[3];
+    x[4]=x4+state[4]; x[5]=x5+state[5]; x[6]=x6+state[6]; x[7]=x7+state[7];
+    x[8]=x8+state[8]; x[9]=x9+state[9]; x[10]=x10+state[10]; x[11]=x11+state[11];
+    x[12]=x12+state[12]; x[13]=x13+state[13]; x[14]=x14+state[14]; x[15]=x15+state[15];
+  }
+
+  static int getIntLE(byte[] b, int i){
+    return (b[i]&0xff)|((b[i+1]&0xff)<<8)|((b[i+2]&0xff)<<16)|((b[i+3]&0xff)<<24);
+  }
+
+  /**
+   * Poly1305 (RFC 7539 2.5) in 26 bit limbs, after poly1305-donna.
+   */
+  static class Poly1305{
+    private static final long M26=0x3ffffff;
+    private long r0, r1, r2, r3, r4, s1, s2, s3, s4;
+    private long h0, h1, h2, h3, h4;
+    private long pad0, pad1, pad2, pad3;
+    private final byte[] buf=new byte[16];
+    private int buflen;
+
+    void init(byte[] key){
+      r0=(getIntLE(key, 0)       )&0x3ffffff;
+      r1=(getIntLE(key, 3)  >>> 2)&0x3ffff03;
+      r2=(getIntLE(key, 6)  >>> 4)&0x3ffc0ff;
+      r3=(getIntLE(key, 9)  >>> 6)&0x3f03fff;
+      r4=(getIntLE(key, 12) >>> 8)&0x00fffff;
+      s1=r1*5; s2=r2*5; s3=r3*5; s4=r4*5;
+      pad0=getIntLE(key, 16)&0xffffffffL;
+      pad1=getIntLE(key, 20)&0xffffffffL;
+      pad2=getIntLE(key, 24)&0xffffffffL;
+      pad3=getIntLE(key, 28)&0xffffffffL;
+      h0=h1=h2=h3=h4=0;
+      buflen=0;
+    }
+
+    void update(byte[] m, int off, int len){
+      if(buflen>0){
+        int n=Math.min(16-buflen, len);
+        System.arraycopy(m, off, buf, buflen, n);
+        buflen+=n;
+        off+=n;
+        len-=n;
+        if(buflen<16) return;
+        block(buf, 0, 1<<24);
+        buflen=0;
+      }
+      while(len>=16){
+        block(m, off, 1<<24);
+        off+=16;
+        len-=16;
+      }
+      if(len>0){
+        System.arraycopy(m, off, buf, 0, len);
+        buflen=len;
+      }
+    }
+
+    void doFinal(byte[] out, int off){
+      if(buflen>0){
+        buf[buflen]=1;
+        for(int i=buflen+1; i<16; i++) buf[i]=0;
+        block(buf, 0, 0);
+      }
+
+      long c;
+      c=h1>>>26; h1&=M26; h2+=c;
+      c=h2>>>26; h2&=M26; h3+=c;
+      c=h3>>>26; h3&=M26; h4+=c;
+      c=h4>>>26; h4&=M26; h0+=c*5;
+      c=h0>>>26; h0&=M26; h1+=c;
+
+      // h-p, and pick it if it did not go negative
+      long g0=h0+5; c=g0>>>26; g0&=M26;
+      long g1=h1+c; c=g1>>>26; g1&=M26;
+      long g2=h2+c; c=g2>>>26; g2&=M26;
+      long g3=h3+c; c=g3>>>26; g3&=M26;
+      long g4=h4+c-(1L<<26);
+      long mask=g4>>63;      // all ones if h < p
+      h0=(h0&mask)|(g0&~mask);
+      h1=(h1&mask)|(g1&~mask);
+      h2=(h2&mask)|(g2&~mask);
+      h3=(h3&mask)|(g3&~mask);
+      h4=(h4&mask)|(g4&~mask);
+
+      long f0=((h0     )|(h1<<26))&0xffffffffL;
+      long f1=((h1>>> 6)|(h2<<20))&0xffffffffL;
+      long f2=((h2>>>12)|(h3<<14))&0xffffffffL;
+      long f3=((h3>>>18)|(h4<< 8))&0xffffffffL;
+
+      f0+=pad0;
+      f1+=pad1+(f0>>>32);
+      f2+=pad2+(f1>>>32);
+      f3+=pad3+(f2>>>32);
+      putIntLE(out, off,    (int)f0);
+      putIntLE(out, off+4,  (int)f1);
+      putIntLE(out, off+8,  (int)f2);
+      putIntLE(out, off+12, (int)f3);
+    }
+
+    private void block(byte[] m, int off, int hibit){
+      h0+=(getIntLE(m, off)           )&0x3ffffff;
+      h1+=(getIntLE(m, off+3)  >>>  2)&0x3ffffff;
+      h2+=(getIntLE(m, off+6)  >>>  4)&0x3ffffff;
+      h3+=(getIntLE(m, off+9)  >>>  6)&0x3ffffff;
+      h4+=(getIntLE(m, off+12) >>>  8)|hibit;
+
+      long d0=h0*r0+h1*s4+h2*s3+h3*s2+h4*s1;
+      long d1=h0*r1+h1*r0+h2*s4+h3*s3+h4*s2;
+      long d2=h0*r2+h1*r1+h2*r0+h3*s4+h4*s3;
+      long d3=h0*r3+h1*r2+h2*r1+h3*r0+h4*s4;
+      long d4=h0*r4+h1*r3+h2*r2+h3*r1+h4*r0;
+
+      long c;
+      c=d0>>>26; h0=d0&M26; d1+=c;
+      c=d1>>>26; h1=d1&M26; d2+=c;
+      c=d2>>>26; h2=d2&M26; d3+=c;
+      c=d3>>>26; h3=d3&M26; d4+=c;
+      c=d4>>>26; h4=d4&M26; h0+=c*5;
+      c=h0>>>26; h0&=M26; h1+=c;
+    }
+
+    private static void putIntLE(byte[] b, int i, int v){
+      b[i]=(byte)v;
+      b[i+1]=(byte)(v>>>8);
+      b[i+2]=(byte)(v>>>16);
+      b[i+3]=(byte)(v>>>24);
+    }
+  }
+}
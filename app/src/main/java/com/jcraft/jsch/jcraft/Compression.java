@@ -31,12 +31,19 @@ package com.jcraft.jsch.jcraft;
 import com.jcraft.jzlib.*;
 import com.jcraft.jsch.*;
 
-public class Compression implements com.jcraft.jsch.Compression {
+public class Compression implements com.jcraft.jsch.AdjustableCompression {
   static private final int BUF_SIZE=4096;
-  private final int buffer_margin=32+20; // AES256 + HMACSHA1
+  private final int buffer_margin=32+64; // max padding + max mac
   private int type;
   private ZStream stream;
-  private byte[] tmpbuf=new byte[BUF_SIZE];
+  private int level;
+  private int newlevel;
+
+  // Deflate reads the payload from inbuf and writes straight into the
+  // packet; inflate writes straight into inflated_buf, which then trades
+  // places with the receive buffer, so each direction copies at most once.
+  private byte[] inbuf;
+  private byte[] inflated_buf;
 
   public Compression(){
     stream=new ZStream();
@@ -45,7 +52,9 @@ public class Compression implements com.jcraft.jsch.Compression {
   public void init(int type, int level){
     if(type==DEFLATER){
       stream.deflateInit(level);
+      inbuf=new byte[BUF_SIZE];
       this.type=DEFLATER;
+      this.level=this.newlevel=level;
     }
     else if(type==INFLATER){
       stream.inflateInit();
@@ -54,87 +63,88 @@ public class Compression implements com.jcraft.jsch.Compression {
     }
   }
 
-  private byte[] inflated_buf;
+  public void setLevel(int level){
+    newlevel=level;
+  }
 
   public byte[] compress(byte[] buf, int start, int[] len){
-    stream.next_in=buf;
-    stream.next_in_index=start;
-    stream.avail_in=len[0]-start;
-    int status;
-    int outputlen=start;
-    byte[] outputbuf=buf;
-    int tmp=0;
-
-    do{
-      stream.next_out=tmpbuf;
-      stream.next_out_index=0;
-      stream.avail_out=BUF_SIZE;
-      status=stream.deflate(JZlib.Z_PARTIAL_FLUSH);
-      switch(status){
-        case JZlib.Z_OK:
-          tmp=BUF_SIZE-stream.avail_out;
-          if(outputbuf.length<outputlen+tmp+buffer_margin){
-            byte[] foo=new byte[(outputlen+tmp+buffer_margin)*2];
-            System.arraycopy(outputbuf, 0, foo, 0, outputbuf.length);
-            outputbuf=foo;
-          }
-          System.arraycopy(tmpbuf, 0, outputbuf, outputlen, tmp);
-          outputlen+=tmp;
-          break;
-        default:
-	    System.err.println("compress: deflate returnd "+status);
+    int n=len[0]-start;
+    if(inbuf.length<n){
+      inbuf=new byte[Math.max(n, inbuf.length*2)];
+    }
+    System.arraycopy(buf, start, inbuf, 0, n);
+
+    stream.next_out=buf;
+    stream.next_out_index=start;
+    stream.avail_out=buf.length-start-buffer_margin;
+    if(newlevel!=level){
+      // The last packet ended in a partial flush with all input taken, so
+      // the flush deflateParams() may do has nothing left to write.
+      stream.avail_in=0;
+      stream.deflateParams(newlevel, JZlib.Z_DEFAULT_STRATEGY);
+      level=newlevel;
+    }
+    stream.next_in=inbuf;
+    stream.next_in_index=0;
+    stream.avail_in=n;
+
+    while(true){
+      if(stream.avail_out<=0){
+        // incompressible data grew a little; bytes past the payload, where
+        // Session.write() keeps the rest of a split packet, come along
+        byte[] foo=new byte[buf.length*2];
+        System.arraycopy(buf, 0, foo, 0, buf.length);
+        stream.avail_out+=buf.length;
+        stream.next_out=buf=foo;
+      }
+      int status=stream.deflate(JZlib.Z_PARTIAL_FLUSH);
+      if(status!=JZlib.Z_OK && status!=JZlib.Z_BUF_ERROR){
+        System.err.println("compress: deflate returnd "+status);
+        break;
+      }
+      if(stream.avail_out>0){
+        break;
       }
     }
-    while(stream.avail_out==0);
 
-    len[0]=outputlen;
-    return outputbuf;
+    len[0]=stream.next_out_index;
+    return buf;
   }
 
   public byte[] uncompress(byte[] buffer, int start, int[] length){
-    int inflated_end=0;
+    byte[] out=inflated_buf;
+    if(out.length<start+length[0]*2){
+      out=new byte[Math.max(start+length[0]*2, out.length*2)];
+    }
 
     stream.next_in=buffer;
     stream.next_in_index=start;
     stream.avail_in=length[0];
+    stream.next_out=out;
+    stream.next_out_index=start;
+    stream.avail_out=out.length-start;
 
     while(true){
-      stream.next_out=tmpbuf;
-      stream.next_out_index=0;
-      stream.avail_out=BUF_SIZE;
       int status=stream.inflate(JZlib.Z_PARTIAL_FLUSH);
-      switch(status){
-        case JZlib.Z_OK:
-	  if(inflated_buf.length<inflated_end+BUF_SIZE-stream.avail_out){
-            int len=inflated_buf.length*2;
-            if(len<inflated_end+BUF_SIZE-stream.avail_out)
-              len=inflated_end+BUF_SIZE-stream.avail_out;
-            byte[] foo=new byte[len];
-	    System.arraycopy(inflated_buf, 0, foo, 0, inflated_end);
-	    inflated_buf=foo;
-	  }
-	  System.arraycopy(tmpbuf, 0,
-			   inflated_buf, inflated_end,
-			   BUF_SIZE-stream.avail_out);
-	  inflated_end+=(BUF_SIZE-stream.avail_out);
-          length[0]=inflated_end;
-	  break;
-        case JZlib.Z_BUF_ERROR:
-          if(inflated_end>buffer.length-start){
-            byte[] foo=new byte[inflated_end+start];
-            System.arraycopy(buffer, 0, foo, 0, start);
-            System.arraycopy(inflated_buf, 0, foo, start, inflated_end);
-	    buffer=foo;
-	  }
-	  else{
-            System.arraycopy(inflated_buf, 0, buffer, start, inflated_end);
-	  }
-          length[0]=inflated_end;
-	  return buffer;
-	default:
-	  System.err.println("uncompress: inflate returnd "+status);
-          return null;
+      if(status!=JZlib.Z_OK && status!=JZlib.Z_BUF_ERROR){
+        System.err.println("uncompress: inflate returnd "+status);
+        return null;
+      }
+      if(stream.avail_out==0){
+        byte[] foo=new byte[out.length*2];
+        System.arraycopy(out, 0, foo, 0, stream.next_out_index);
+        stream.avail_out+=out.length;
+        stream.next_out=out=foo;
+        continue;
+      }
+      if(status==JZlib.Z_BUF_ERROR || stream.avail_in==0){
+        break;
       }
     }
+
+    System.arraycopy(buffer, 0, out, 0, start);
+    length[0]=stream.next_out_index-start;
+    inflated_buf=buffer;   // the caller's array is ours now
+    return out;
   }
 }
@@ -0,0 +1,498 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jcraft;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+/**
+ * Ed25519 signatures (RFC 8032) on top of Field25519.
+ *
+ * Points are kept in extended coordinates (X:Y:Z:T with x=X/Z, y=Y/Z,
+ * xy=T/Z) and added with the complete formulas of Hisil et al., so the
+ * identity and doubling need no special cases.  [a]B takes 64 additions
+ * from a table of 256^i*j*B, with signed 4 bit digits picked out of the
+ * table by masks rather than by index, so signing and key generation do
+ * not leak the secret scalar through timing.  Verification does [k]A with
+ * the same digits over an 8 entry table built on the spot.  Scalars modulo
+ * the group order L are reduced in 21 bit limbs, as in the ref10 code.
+ */
+final class Ed25519{
+  private Ed25519(){}
+
+  private static final class Point{
+    final long[] x=new long[10];
+    final long[] y=new long[10];
+    final long[] z=new long[10];
+    final long[] t=new long[10];
+  }
+
+  // (Y+X, Y-X, Z, 2dT), what add() wants of its second operand
+  private static final class Cached{
+    final long[] yplusx=new long[10];
+    final long[] yminusx=new long[10];
+    final long[] z=new long[10];
+    final long[] t2d=new long[10];
+  }
+
+  private static final long[] d=new long[10];
+  private static final long[] d2=new long[10];
+  private static final long[] sqrtm1=new long[10];
+  private static final long[] one={1, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+  // base[i][j] is (j+1)*256^i*B
+  private static final Cached[][] base=new Cached[32][8];
+
+  // L-2^252, little endian; L=2^252+27742317777372353535851937790883648493
+  private static final byte[] L={
+    (byte)0xed, (byte)0xd3, (byte)0xf5, (byte)0x5c, (byte)0x1a, (byte)0x63,
+    (byte)0x12, (byte)0x58, (byte)0xd6, (byte)0x9c, (byte)0xf7, (byte)0xa2,
+    (byte)0xde, (byte)0xf9, (byte)0xde, (byte)0x14, 0, 0, 0, 0, 0, 0, 0, 0,
+    0, 0, 0, 0, 0, 0, 0, (byte)0x10
+  };
+
+  static{
+    BigInteger p=BigInteger.ONE.shiftLeft(255).subtract(BigInteger.valueOf(19));
+    BigInteger foo=BigInteger.valueOf(-121665)
+      .multiply(BigInteger.valueOf(121666).modInverse(p)).mod(p);
+    fromBigInteger(d, foo);
+    fromBigInteger(d2, foo.shiftLeft(1).mod(p));
+    fromBigInteger(sqrtm1, BigInteger.valueOf(2)
+                   .modPow(p.subtract(BigInteger.ONE).shiftRight(2), p));
+
+    byte[] b=new byte[32];    // y=4/5
+    b[0]=0x58;
+    for(int i=1; i<32; i++) b[i]=0x66;
+    Point P=new Point();
+    decodePoint(P, b);
+    Point Q=new Point();
+    for(int i=0; i<32; i++){
+      base[i][0]=new Cached();
+      toCached(base[i][0], P);
+      copy(Q, P);
+      for(int j=1; j<8; j++){
+        add(Q, Q, base[i][0]);
+        base[i][j]=new Cached();
+        toCached(base[i][j], Q);
+      }
+      for(int j=0; j<8; j++) dbl(P, P);
+    }
+  }
+
+  private static void fromBigInteger(long[] h, BigInteger n){
+    byte[] foo=n.toByteArray();
+    byte[] bar=new byte[32];
+    for(int i=0; i<foo.length && i<32; i++) bar[i]=foo[foo.length-1-i];
+    Field25519.decode(h, bar);
+  }
+
+  static byte[] publicKey(byte[] seed) throws Exception{
+    byte[] a=secretScalar(seed);
+    Point A=new Point();
+    scalarMultBase(A, a);
+    byte[] pub=new byte[32];
+    encodePoint(pub, A);
+    return pub;
+  }
+
+  static byte[] sign(byte[] seed, byte[] pub, byte[] msg) throws Exception{
+    MessageDigest sha=MessageDigest.getInstance("SHA-512");
+    byte[] h=sha.digest(seed);
+    byte[] a=secretScalar(seed);
+
+    sha.update(h, 32, 32);
+    sha.update(msg);
+    byte[] r=reduce(sha.digest());
+    Point R=new Point();
+    scalarMultBase(R, r);
+    byte[] sig=new byte[64];
+    encodePoint(sig, R);
+
+    sha.update(sig, 0, 32);
+    sha.update(pub);
+    sha.update(msg);
+    byte[] k=reduce(sha.digest());
+    byte[] s=mulAdd(k, a, r);
+    System.arraycopy(s, 0, sig, 32, 32);
+    return sig;
+  }
+
+  static boolean verify(byte[] pub, byte[] msg, byte[] sig) throws Exception{
+    if(pub.length!=32 || sig.length!=64) return false;
+    byte[] s=new byte[32];
+    System.arraycopy(sig, 32, s, 0, 32);
+    if(!lessThanL(s)) return false;
+    Point A=new Point();
+    if(!decodePoint(A, pub)) return false;
+
+    MessageDigest sha=MessageDigest.getInstance("SHA-512");
+    sha.update(sig, 0, 32);
+    sha.update(pub);
+    sha.update(msg);
+    byte[] k=reduce(sha.digest());
+
+    // [s]B-[k]A
+    Field25519.neg(A.x, A.x);
+    Field25519.neg(A.t, A.t);
+    Point P=new Point();
+    scalarMult(P, A, k);
+    Cached c=new Cached();
+    toCached(c, P);
+    Point R=new Point();
+    scalarMultBase(R, s);
+    add(R, R, c);
+    byte[] foo=new byte[32];
+    encodePoint(foo, R);
+    int diff=0;
+    for(int i=0; i<32; i++) diff|=foo[i]^sig[i];
+    return diff==0;
+  }
+
+  private static byte[] secretScalar(byte[] seed) throws Exception{
+    MessageDigest sha=MessageDigest.getInstance("SHA-512");
+    byte[] h=sha.digest(seed);
+    byte[] a=new byte[32];
+    System.arraycopy(h, 0, a, 0, 32);
+    a[0]&=(byte)248;
+    a[31]&=127;
+    a[31]|=64;
+    return a;
+  }
+
+  private static boolean lessThanL(byte[] s){
+    for(int i=31; i>=0; i--){
+      int foo=s[i]&0xff, bar=L[i]&0xff;
+      if(foo<bar) return true;
+      if(foo>bar) return false;
+    }
+    return false;
+  }
+
+  /* points */
+
+  private static void identity(Point p){
+    for(int i=0; i<10; i++){ p.x[i]=0; p.y[i]=0; p.z[i]=0; p.t[i]=0; }
+    p.y[0]=1;
+    p.z[0]=1;
+  }
+
+  private static void copy(Point r, Point p){
+    System.arraycopy(p.x, 0, r.x, 0, 10);
+    System.arraycopy(p.y, 0, r.y, 0, 10);
+    System.arraycopy(p.z, 0, r.z, 0, 10);
+    System.arraycopy(p.t, 0, r.t, 0, 10);
+  }
+
+  private static void toCached(Cached c, Point p){
+    Field25519.add(c.yplusx, p.y, p.x);
+    Field25519.sub(c.yminusx, p.y, p.x);
+    System.arraycopy(p.z, 0, c.z, 0, 10);
+    Field25519.mul(c.t2d, p.t, d2);
+  }
+
+  // r=p+q, r may be p
+  private static void add(Point r, Point p, Cached q){
+    long[] a=new long[10];
+    long[] b=new long[10];
+    long[] c=new long[10];
+    long[] dd=new long[10];
+    Field25519.sub(a, p.y, p.x);
+    Field25519.mul(a, a, q.yminusx);
+    Field25519.add(b, p.y, p.x);
+    Field25519.mul(b, b, q.yplusx);
+    Field25519.mul(c, p.t, q.t2d);
+    Field25519.mul(dd, p.z, q.z);
+    Field25519.add(dd, dd, dd);
+    finish(r, b, a, dd, c);
+  }
+
+  // r=2p, r may be p
+  private static void dbl(Point r, Point p){
+    long[] a=new long[10];
+    long[] b=new long[10];
+    long[] c=new long[10];
+    long[] e=new long[10];
+    Field25519.sq(a, p.x);
+    Field25519.sq(b, p.y);
+    Field25519.sq(c, p.z);
+    Field25519.add(c, c, c);
+    Field25519.add(e, p.x, p.y);
+    Field25519.sq(e, e);
+    long[] h=new long[10];
+    long[] g=new long[10];
+    long[] f=new long[10];
+    Field25519.add(h, a, b);
+    Field25519.sub(e, h, e);
+    Field25519.sub(g, a, b);
+    Field25519.add(f, c, g);
+    Field25519.mul(r.x, e, f);
+    Field25519.mul(r.y, g, h);
+    Field25519.mul(r.t, e, h);
+    Field25519.mul(r.z, f, g);
+  }
+
+  // E=B-A, F=D-C, G=D+C, H=B+A; X=EF, Y=GH, T=EH, Z=FG
+  private static void finish(Point r, long[] b, long[] a, long[] dd, long[] c){
+    long[] e=new long[10];
+    long[] f=new long[10];
+    long[] g=new long[10];
+    long[] h=new long[10];
+    Field25519.sub(e, b, a);
+    Field25519.sub(f, dd, c);
+    Field25519.add(g, dd, c);
+    Field25519.add(h, b, a);
+    Field25519.mul(r.x, e, f);
+    Field25519.mul(r.y, g, h);
+    Field25519.mul(r.t, e, h);
+    Field25519.mul(r.z, f, g);
+  }
+
+  // t=table[|e|-1] (the identity for 0), negated if e<0
+  private static void select(Cached t, Cached[] table, int e){
+    int neg=e>>>31;
+    int abs=e-((-neg&e)<<1);
+    for(int i=0; i<10; i++){
+      t.yplusx[i]=0; t.yminusx[i]=0; t.z[i]=0; t.t2d[i]=0;
+    }
+    t.yplusx[0]=1;
+    t.yminusx[0]=1;
+    t.z[0]=1;
+    for(int j=0; j<8; j++){
+      int b=(((abs^(j+1))-1)>>>31);
+      Field25519.cmov(t.yplusx, table[j].yplusx, b);
+      Field25519.cmov(t.yminusx, table[j].yminusx, b);
+      Field25519.cmov(t.z, table[j].z, b);
+      Field25519.cmov(t.t2d, table[j].t2d, b);
+    }
+    Field25519.cswap(t.yplusx, t.yminusx, neg);
+    long[] foo=new long[10];
+    Field25519.neg(foo, t.t2d);
+    Field25519.cmov(t.t2d, foo, neg);
+  }
+
+  // a as 64 signed radix 16 digits in [-8,8]; a[31] must be below 128
+  private static byte[] digits(byte[] a){
+    byte[] e=new byte[64];
+    for(int i=0; i<32; i++){
+      e[2*i]=(byte)(a[i]&15);
+      e[2*i+1]=(byte)((a[i]>>>4)&15);
+    }
+    int carry=0;
+    for(int i=0; i<63; i++){
+      e[i]+=carry;
+      carry=(e[i]+8)>>4;
+      e[i]-=carry<<4;
+    }
+    e[63]+=carry;
+    return e;
+  }
+
+  private static void scalarMultBase(Point h, byte[] a){
+    byte[] e=digits(a);
+    Cached t=new Cached();
+    identity(h);
+    for(int i=1; i<64; i+=2){
+      select(t, base[i/2], e[i]);
+      add(h, h, t);
+    }
+    for(int i=0; i<4; i++) dbl(h, h);
+    for(int i=0; i<64; i+=2){
+      select(t, base[i/2], e[i]);
+      add(h, h, t);
+    }
+  }
+
+  // only used on public values, k must be reduced
+  private static void scalarMult(Point h, Point A, byte[] k){
+    Cached[] table=new Cached[8];
+    Point P=new Point();
+    copy(P, A);
+    table[0]=new Cached();
+    toCached(table[0], A);
+    for(int j=1; j<8; j++){
+      add(P, P, table[0]);
+      table[j]=new Cached();
+      toCached(table[j], P);
+    }
+    byte[] e=digits(k);
+    Cached t=new Cached();
+    identity(h);
+    for(int i=63; i>=0; i--){
+      if(i<63){
+        for(int j=0; j<4; j++) dbl(h, h);
+      }
+      select(t, table, e[i]);
+      add(h, h, t);
+    }
+  }
+
+  private static void encodePoint(byte[] s, Point p){
+    long[] recip=new long[10];
+    long[] x=new long[10];
+    long[] y=new long[10];
+    Field25519.invert(recip, p.z);
+    Field25519.mul(x, p.x, recip);
+    Field25519.mul(y, p.y, recip);
+    Field25519.encode(s, y);
+    s[31]^=(byte)(Field25519.isNegative(x)<<7);
+  }
+
+  // RFC 8032 5.1.3, false if s is not on the curve
+  private static boolean decodePoint(Point r, byte[] s){
+    long[] u=new long[10];
+    long[] v=new long[10];
+    long[] v3=new long[10];
+    long[] vxx=new long[10];
+    long[] check=new long[10];
+
+    Field25519.decode(r.y, s);
+    System.arraycopy(one, 0, r.z, 0, 10);
+    Field25519.sq(u, r.y);
+    Field25519.mul(v, u, d);
+    Field25519.sub(u, u, one);      // y^2-1
+    Field25519.add(v, v, one);      // dy^2+1
+
+    Field25519.sq(v3, v);
+    Field25519.mul(v3, v3, v);      // v^3
+    Field25519.sq(r.x, v3);
+    Field25519.mul(r.x, r.x, v);
+    Field25519.mul(r.x, r.x, u);    // uv^7
+    Field25519.pow22523(r.x, r.x);
+    Field25519.mul(r.x, r.x, v3);
+    Field25519.mul(r.x, r.x, u);    // uv^3(uv^7)^((p-5)/8)
+
+    Field25519.sq(vxx, r.x);
+    Field25519.mul(vxx, vxx, v);
+    Field25519.sub(check, vxx, u);
+    if(Field25519.isZero(check)==0){
+      Field25519.add(check, vxx, u);
+      if(Field25519.isZero(check)==0) return false;
+      Field25519.mul(r.x, r.x, sqrtm1);
+    }
+
+    int sign=(s[31]>>>7)&1;
+    if(Field25519.isZero(r.x)==1 && sign==1) return false;
+    if(Field25519.isNegative(r.x)!=sign) Field25519.neg(r.x, r.x);
+    Field25519.mul(r.t, r.x, r.y);
+    return true;
+  }
+
+  /* scalars modulo L, in 21 bit limbs */
+
+  private static long[] load(byte[] b, int n){
+    long[] s=new long[n];
+    for(int i=0; i<n; i++){
+      int bit=21*i;
+      int end=(i==n-1) ? b.length*8 : bit+21;
+      long v=0;
+      for(int k=bit; k<end; k++){
+        v|=(long)((b[k>>>3]>>>(k&7))&1)<<(k-bit);
+      }
+      s[i]=v;
+    }
+    return s;
+  }
+
+  // s[i]*2^(21*i) == s[i]*2^(21*(i-12))*(2^252 mod L)
+  private static void fold(long[] s, int i){
+    s[i-12]+=s[i]*666643;
+    s[i-11]+=s[i]*470296;
+    s[i-10]+=s[i]*654183;
+    s[i-9]-=s[i]*997805;
+    s[i-8]+=s[i]*136657;
+    s[i-7]-=s[i]*683901;
+    s[i]=0;
+  }
+
+  private static void carrySigned(long[] s, int from, int to){
+    for(int i=from; i<=to; i++){
+      long c=(s[i]+(1<<20))>>21;
+      s[i+1]+=c;
+      s[i]-=c<<21;
+    }
+  }
+
+  private static void carryFloor(long[] s, int from, int to){
+    for(int i=from; i<=to; i++){
+      long c=s[i]>>21;
+      s[i+1]+=c;
+      s[i]-=c<<21;
+    }
+  }
+
+  // s has 24 limbs
+  private static byte[] reduce(long[] s){
+    for(int i=23; i>=18; i--) fold(s, i);
+    carrySigned(s, 6, 16);
+    for(int i=17; i>=12; i--) fold(s, i);
+    carrySigned(s, 0, 11);
+    fold(s, 12);
+    carryFloor(s, 0, 11);
+    fold(s, 12);
+    carryFloor(s, 0, 10);
+
+    byte[] out=new byte[32];
+    long acc=0;
+    int bits=0;
+    int j=0;
+    for(int i=0; i<12; i++){
+      acc|=s[i]<<bits;
+      bits+=21;
+      while(bits>=8 && j<32){
+        out[j++]=(byte)acc;
+        acc>>>=8;
+        bits-=8;
+      }
+    }
+    while(j<32){
+      out[j++]=(byte)acc;
+      acc>>>=8;
+    }
+    return out;
+  }
+
+  // a 64 byte hash mod L
+  static byte[] reduce(byte[] h){
+    return reduce(load(h, 24));
+  }
+
+  // (a*b+c) mod L
+  static byte[] mulAdd(byte[] a, byte[] b, byte[] c){
+    long[] _a=load(a, 12);
+    long[] _b=load(b, 12);
+    long[] s=load(c, 12);
+    long[] foo=new long[24];
+    System.arraycopy(s, 0, foo, 0, 12);
+    for(int i=0; i<12; i++){
+      for(int j=0; j<12; j++) foo[i+j]+=_a[i]*_b[j];
+    }
+    carrySigned(foo, 0, 22);
+    return reduce(foo);
+  }
+}
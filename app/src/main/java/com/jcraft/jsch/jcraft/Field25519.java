@@ -0,0 +1,270 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jcraft;
+
+/**
+ * Arithmetic modulo 2^255-19, shared by X25519 and Ed25519.
+ *
+ * Field elements are ten signed limbs of alternately 26 and 25 bits in a
+ * long[] (the "ref10" representation), so that a product of two elements
+ * fits in 64 bit sums without carries in between.  add() and sub() do not
+ * carry, so their results may only go into mul() and sq(), which do.
+ * Nothing here branches on or indexes by a limb value.
+ */
+final class Field25519{
+  private Field25519(){}
+
+  private static final int[] POS={0, 26, 51, 77, 102, 128, 153, 179, 204, 230};
+
+  static void decode(long[] h, byte[] s){
+    for(int i=0; i<10; i++){
+      int p=POS[i];
+      long v=0;
+      for(int j=0; j<5 && (p>>>3)+j<32; j++){
+        v|=(s[(p>>>3)+j]&0xffL)<<(8*j);
+      }
+      h[i]=(v>>>(p&7))&((1L<<((i&1)==0 ? 26 : 25))-1);
+    }
+  }
+
+  // fully reduces mod 2^255-19; f may come straight from add() or sub()
+  static void encode(byte[] s, long[] f){
+    long[] h=new long[10];
+    carry(h, f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7], f[8], f[9]);
+    long q=(19*h[9]+(1L<<24))>>25;
+    for(int i=0; i<10; i++){
+      q=(h[i]+q)>>((i&1)==0 ? 26 : 25);
+    }
+    h[0]+=19*q;
+    for(int i=0; i<9; i++){
+      int w=(i&1)==0 ? 26 : 25;
+      long carry=h[i]>>w;
+      h[i+1]+=carry;
+      h[i]-=carry<<w;
+    }
+    h[9]&=(1L<<25)-1;
+    for(int i=0; i<32; i++) s[i]=0;
+    for(int i=0; i<10; i++){
+      int p=POS[i];
+      long v=h[i]<<(p&7);
+      for(int j=0; j<5 && (p>>>3)+j<32; j++){
+        s[(p>>>3)+j]|=(byte)(v>>>(8*j));
+      }
+    }
+  }
+
+  static void cswap(long[] f, long[] g, int b){
+    long mask=-b;
+    for(int i=0; i<10; i++){
+      long x=(f[i]^g[i])&mask;
+      f[i]^=x;
+      g[i]^=x;
+    }
+  }
+
+  static void add(long[] h, long[] f, long[] g){
+    for(int i=0; i<10; i++) h[i]=f[i]+g[i];
+  }
+
+  static void sub(long[] h, long[] f, long[] g){
+    for(int i=0; i<10; i++) h[i]=f[i]-g[i];
+  }
+
+  static void mul121665(long[] h, long[] f){
+    carry(h, f[0]*121665, f[1]*121665, f[2]*121665, f[3]*121665, f[4]*121665,
+          f[5]*121665, f[6]*121665, f[7]*121665, f[8]*121665, f[9]*121665);
+  }
+
+  static void mul(long[] h, long[] f, long[] g){
+    long f0=f[0], f1=f[1], f2=f[2], f3=f[3], f4=f[4];
+    long f5=f[5], f6=f[6], f7=f[7], f8=f[8], f9=f[9];
+    long g0=g[0], g1=g[1], g2=g[2], g3=g[3], g4=g[4];
+    long g5=g[5], g6=g[6], g7=g[7], g8=g[8], g9=g[9];
+    long f1_2=2*f1, f3_2=2*f3, f5_2=2*f5, f7_2=2*f7, f9_2=2*f9;
+    long g1_19=19*g1, g2_19=19*g2, g3_19=19*g3, g4_19=19*g4, g5_19=19*g5;
+    long g6_19=19*g6, g7_19=19*g7, g8_19=19*g8, g9_19=19*g9;
+    long h0=f0*g0+f1_2*g9_19+f2*g8_19+f3_2*g7_19+f4*g6_19+f5_2*g5_19+f6*g4_19
+           +f7_2*g3_19+f8*g2_19+f9_2*g1_19;
+    long h1=f0*g1+f1*g0+f2*g9_19+f3*g8_19+f4*g7_19+f5*g6_19+f6*g5_19+f7*g4_19
+           +f8*g3_19+f9*g2_19;
+    long h2=f0*g2+f1_2*g1+f2*g0+f3_2*g9_19+f4*g8_19+f5_2*g7_19+f6*g6_19
+           +f7_2*g5_19+f8*g4_19+f9_2*g3_19;
+    long h3=f0*g3+f1*g2+f2*g1+f3*g0+f4*g9_19+f5*g8_19+f6*g7_19+f7*g6_19
+           +f8*g5_19+f9*g4_19;
+    long h4=f0*g4+f1_2*g3+f2*g2+f3_2*g1+f4*g0+f5_2*g9_19+f6*g8_19+f7_2*g7_19
+           +f8*g6_19+f9_2*g5_19;
+    long h5=f0*g5+f1*g4+f2*g3+f3*g2+f4*g1+f5*g0+f6*g9_19+f7*g8_19+f8*g7_19
+           +f9*g6_19;
+    long h6=f0*g6+f1_2*g5+f2*g4+f3_2*g3+f4*g2+f5_2*g1+f6*g0+f7_2*g9_19
+           +f8*g8_19+f9_2*g7_19;
+    long h7=f0*g7+f1*g6+f2*g5+f3*g4+f4*g3+f5*g2+f6*g1+f7*g0+f8*g9_19+f9*g8_19;
+    long h8=f0*g8+f1_2*g7+f2*g6+f3_2*g5+f4*g4+f5_2*g3+f6*g2+f7_2*g1+f8*g0
+           +f9_2*g9_19;
+    long h9=f0*g9+f1*g8+f2*g7+f3*g6+f4*g5+f5*g4+f6*g3+f7*g2+f8*g1+f9*g0;
+    carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+  }
+
+  static void sq(long[] h, long[] f){
+    long f0=f[0], f1=f[1], f2=f[2], f3=f[3], f4=f[4];
+    long f5=f[5], f6=f[6], f7=f[7], f8=f[8], f9=f[9];
+    long f0_2=2*f0, f1_2=2*f1, f2_2=2*f2, f3_2=2*f3, f4_2=2*f4;
+    long f5_2=2*f5, f6_2=2*f6, f7_2=2*f7, f8_2=2*f8, f9_2=2*f9;
+    long f5_19=19*f5, f6_19=19*f6, f7_19=19*f7, f8_19=19*f8, f9_19=19*f9;
+    long f7_38=38*f7, f9_38=38*f9;
+    long h0=f0*f0+f1_2*f9_38+f2_2*f8_19+f3_2*f7_38+f4_2*f6_19+f5_2*f5_19;
+    long h1=f0_2*f1+f2_2*f9_19+f3_2*f8_19+f4_2*f7_19+f5_2*f6_19;
+    long h2=f0_2*f2+f1_2*f1+f3_2*f9_38+f4_2*f8_19+f5_2*f7_38+f6*f6_19;
+    long h3=f0_2*f3+f1_2*f2+f4_2*f9_19+f5_2*f8_19+f6_2*f7_19;
+    long h4=f0_2*f4+f1_2*f3_2+f2*f2+f5_2*f9_38+f6_2*f8_19+f7_2*f7_19;
+    long h5=f0_2*f5+f1_2*f4+f2_2*f3+f6_2*f9_19+f7_2*f8_19;
+    long h6=f0_2*f6+f1_2*f5_2+f2_2*f4+f3_2*f3+f7_2*f9_38+f8*f8_19;
+    long h7=f0_2*f7+f1_2*f6+f2_2*f5+f3_2*f4+f8_2*f9_19;
+    long h8=f0_2*f8+f1_2*f7_2+f2_2*f6+f3_2*f5_2+f4*f4+f9_2*f9_19;
+    long h9=f0_2*f9+f1_2*f8+f2_2*f7+f3_2*f6+f4_2*f5;
+    carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+  }
+
+  static void sqn(long[] h, long[] f, int n){
+    sq(h, f);
+    for(int i=1; i<n; i++) sq(h, h);
+  }
+
+  // rounds each limb to its signed 26 or 25 bits, the top carry wraps
+  // around times 19
+  static void carry(long[] h, long h0, long h1, long h2, long h3,
+                            long h4, long h5, long h6, long h7, long h8,
+                            long h9){
+    long c;
+    c=(h0+(1L<<25))>>26; h1+=c; h0-=c<<26;
+    c=(h1+(1L<<24))>>25; h2+=c; h1-=c<<25;
+    c=(h2+(1L<<25))>>26; h3+=c; h2-=c<<26;
+    c=(h3+(1L<<24))>>25; h4+=c; h3-=c<<25;
+    c=(h4+(1L<<25))>>26; h5+=c; h4-=c<<26;
+    c=(h5+(1L<<24))>>25; h6+=c; h5-=c<<25;
+    c=(h6+(1L<<25))>>26; h7+=c; h6-=c<<26;
+    c=(h7+(1L<<24))>>25; h8+=c; h7-=c<<25;
+    c=(h8+(1L<<25))>>26; h9+=c; h8-=c<<26;
+    c=(h9+(1L<<24))>>25; h0+=c*19; h9-=c<<25;
+    c=(h0+(1L<<25))>>26; h1+=c; h0-=c<<26;
+    h[0]=h0; h[1]=h1; h[2]=h2; h[3]=h3; h[4]=h4;
+    h[5]=h5; h[6]=h6; h[7]=h7; h[8]=h8; h[9]=h9;
+  }
+
+  // z^(p-2), with the usual chain of 254 squarings and 11 multiplications
+  static void invert(long[] out, long[] z){
+    long[] z2=new long[10];
+    long[] z9=new long[10];
+    long[] z11=new long[10];
+    long[] z2_5_0=new long[10];
+    long[] z2_10_0=new long[10];
+    long[] z2_20_0=new long[10];
+    long[] z2_50_0=new long[10];
+    long[] z2_100_0=new long[10];
+    long[] t=new long[10];
+
+    sq(z2, z);                 // 2
+    sqn(t, z2, 2);             // 8
+    mul(z9, t, z);             // 9
+    mul(z11, z9, z2);          // 11
+    sq(t, z11);                // 22
+    mul(z2_5_0, t, z9);        // 2^5-2^0
+    sqn(t, z2_5_0, 5);
+    mul(z2_10_0, t, z2_5_0);   // 2^10-2^0
+    sqn(t, z2_10_0, 10);
+    mul(z2_20_0, t, z2_10_0);  // 2^20-2^0
+    sqn(t, z2_20_0, 20);
+    mul(t, t, z2_20_0);        // 2^40-2^0
+    sqn(t, t, 10);
+    mul(z2_50_0, t, z2_10_0);  // 2^50-2^0
+    sqn(t, z2_50_0, 50);
+    mul(z2_100_0, t, z2_50_0); // 2^100-2^0
+    sqn(t, z2_100_0, 100);
+    mul(t, t, z2_100_0);       // 2^200-2^0
+    sqn(t, t, 50);
+    mul(t, t, z2_50_0);        // 2^250-2^0
+    sqn(t, t, 5);              // 2^255-2^5
+    mul(out, t, z11);          // 2^255-21
+  }
+
+  static void neg(long[] h, long[] f){
+    for(int i=0; i<10; i++) h[i]=-f[i];
+  }
+
+  // h=g if b is 1, unchanged if b is 0
+  static void cmov(long[] h, long[] g, int b){
+    long mask=-b;
+    for(int i=0; i<10; i++) h[i]^=(h[i]^g[i])&mask;
+  }
+
+  // the low bit of the reduced value, the "sign" of RFC 8032
+  static int isNegative(long[] f){
+    byte[] s=new byte[32];
+    encode(s, f);
+    return s[0]&1;
+  }
+
+  static int isZero(long[] f){
+    byte[] s=new byte[32];
+    encode(s, f);
+    int foo=0;
+    for(int i=0; i<32; i++) foo|=s[i];
+    return ((foo&0xff)-1)>>>31;
+  }
+
+  // z^((p-5)/8), for the square root in point decompression
+  static void pow22523(long[] out, long[] z){
+    long[] t0=new long[10];
+    long[] t1=new long[10];
+    long[] t2=new long[10];
+
+    sq(t0, z);                 // 2
+    sqn(t1, t0, 2);            // 8
+    mul(t1, z, t1);            // 9
+    mul(t0, t0, t1);           // 11
+    sq(t0, t0);                // 22
+    mul(t0, t1, t0);           // 2^5-2^0
+    sqn(t1, t0, 5);
+    mul(t0, t1, t0);           // 2^10-2^0
+    sqn(t1, t0, 10);
+    mul(t1, t1, t0);           // 2^20-2^0
+    sqn(t2, t1, 20);
+    mul(t1, t2, t1);           // 2^40-2^0
+    sqn(t1, t1, 10);
+    mul(t0, t1, t0);           // 2^50-2^0
+    sqn(t1, t0, 50);
+    mul(t1, t1, t0);           // 2^100-2^0
+    sqn(t2, t1, 100);
+    mul(t1, t2, t1);           // 2^200-2^0
+    sqn(t1, t1, 50);
+    mul(t0, t1, t0);           // 2^250-2^0
+    sqn(t0, t0, 2);            // 2^252-2^2
+    mul(out, t0, z);           // 2^252-3
+  }
+}
@@ -0,0 +1,75 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jcraft;
+
+import com.jcraft.jsch.Buffer;
+
+/**
+ * ssh-ed25519 signatures.  The private key is the 32 byte seed of RFC 8032;
+ * the message is buffered because Ed25519 hashes it twice.
+ */
+public class SignatureEd25519 implements com.jcraft.jsch.SignatureEdDSA{
+
+  private byte[] pub;
+  private byte[] prv;
+  private java.io.ByteArrayOutputStream data;
+
+  public void init() throws Exception{
+    data=new java.io.ByteArrayOutputStream();
+  }
+  public void setPubKey(byte[] pub) throws Exception{
+    this.pub=pub;
+  }
+  public void setPrvKey(byte[] prv) throws Exception{
+    this.prv=prv;
+  }
+  public void update(byte[] foo) throws Exception{
+    data.write(foo, 0, foo.length);
+  }
+  public byte[] sign() throws Exception{
+    if(pub==null) pub=Ed25519.publicKey(prv);
+    return Ed25519.sign(prv, pub, data.toByteArray());
+  }
+  public boolean verify(byte[] sig) throws Exception{
+    int i=0;
+    int j=0;
+    byte[] tmp;
+    Buffer buf=new Buffer(sig);
+
+    if(sig.length!=64 && new String(buf.getString()).equals("ssh-ed25519")){
+      j=buf.getInt();
+      i=buf.getOffSet();
+      tmp=new byte[j];
+      System.arraycopy(sig, i, tmp, 0, j); sig=tmp;
+    }
+
+    return Ed25519.verify(pub, data.toByteArray(), sig);
+  }
+}
@@ -0,0 +1,144 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2018 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jcraft;
+
+import com.jcraft.jsch.JSchException;
+import java.security.SecureRandom;
+
+/**
+ * X25519 (RFC 7748) for curve25519-sha256, in pure Java so that it does not
+ * depend on the provider having XDH, and fast enough for slow phones.
+ *
+ * The Montgomery ladder runs the same sequence of operations whatever the
+ * scalar, swapping with masks; the field arithmetic is in Field25519.
+ */
+public class X25519 implements com.jcraft.jsch.XDH {
+  private static final SecureRandom random=new SecureRandom();
+  private static final byte[] basepoint=new byte[32];
+  static{
+    basepoint[0]=9;
+  }
+
+  private byte[] privateKey;
+  private byte[] Q;
+
+  public void init() throws Exception{
+    privateKey=new byte[32];
+    random.nextBytes(privateKey);
+    Q=scalarMult(privateKey, basepoint);
+  }
+
+  public byte[] getQ() throws Exception{
+    return Q;
+  }
+
+  public byte[] getSecret(byte[] Q) throws Exception{
+    byte[] secret=scalarMult(privateKey, Q);
+    // RFC 7748 6.1, a low order point gives an all zero secret
+    int foo=0;
+    for(int i=0; i<secret.length; i++){
+      foo|=secret[i];
+    }
+    if(foo==0){
+      throw new JSchException("invalid X25519 public key");
+    }
+    return secret;
+  }
+
+  public boolean validate(byte[] Q) throws Exception{
+    return Q.length==32;
+  }
+
+  /**
+   * The u-coordinate of k times the point with u-coordinate u.
+   */
+  public static byte[] scalarMult(byte[] k, byte[] u){
+    byte[] e=new byte[32];
+    System.arraycopy(k, 0, e, 0, 32);
+    e[0]&=(byte)248;
+    e[31]&=127;
+    e[31]|=64;
+
+    long[] x1=new long[10];
+    long[] x2=new long[10];
+    long[] z2=new long[10];
+    long[] x3=new long[10];
+    long[] z3=new long[10];
+    long[] a=new long[10];
+    long[] aa=new long[10];
+    long[] b=new long[10];
+    long[] bb=new long[10];
+    long[] c=new long[10];
+    long[] d=new long[10];
+    long[] t=new long[10];
+
+    Field25519.decode(x1, u);
+    x2[0]=1;
+    System.arraycopy(x1, 0, x3, 0, 10);
+    z3[0]=1;
+
+    int swap=0;
+    for(int pos=254; pos>=0; pos--){
+      int bit=(e[pos>>>3]>>>(pos&7))&1;
+      swap^=bit;
+      Field25519.cswap(x2, x3, swap);
+      Field25519.cswap(z2, z3, swap);
+      swap=bit;
+
+      Field25519.add(a, x2, z2);
+      Field25519.sq(aa, a);
+      Field25519.sub(b, x2, z2);
+      Field25519.sq(bb, b);
+      Field25519.sub(t, aa, bb);           // E
+      Field25519.add(c, x3, z3);
+      Field25519.sub(d, x3, z3);
+      Field25519.mul(d, d, a);             // DA
+      Field25519.mul(c, c, b);             // CB
+      Field25519.add(x3, d, c);
+      Field25519.sq(x3, x3);
+      Field25519.sub(z3, d, c);
+      Field25519.sq(z3, z3);
+      Field25519.mul(z3, z3, x1);
+      Field25519.mul(x2, aa, bb);
+      Field25519.mul121665(z2, t);
+      Field25519.add(z2, z2, aa);
+      Field25519.mul(z2, z2, t);
+    }
+    Field25519.cswap(x2, x3, swap);
+    Field25519.cswap(z2, z3, swap);
+
+    Field25519.invert(z2, z2);
+    Field25519.mul(x2, x2, z2);
+    byte[] out=new byte[32];
+    Field25519.encode(out, x2);
+    for(int i=0; i<32; i++) e[i]=0;
+    return out;
+  }
+}
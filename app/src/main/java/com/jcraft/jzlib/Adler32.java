@@ -44,6 +44,9 @@ final public class Adler32 implements Checksum {
   private long s1=1L;
   private long s2=0L;
 
+  static final private int NATIVE_MIN=256;
+  private java.util.zip.Adler32 platform;
+
   public void reset(long init){
     s1=init&0xffff;
     s2=(init>>16)&0xffff;
@@ -67,6 +70,21 @@ final public class Adler32 implements Checksum {
       return;
     }
 
+    // Long runs go to the platform's Adler-32, which JVMs compile to
+    // vector code and Android runs natively, and are merged with combine()
+    // since it always starts from 1.
+    if(len>=NATIVE_MIN){
+      if(platform==null){
+        platform=new java.util.zip.Adler32();
+      }
+      platform.reset();
+      platform.update(buf, index, len);
+      long v=combine(getValue(), platform.getValue(), len);
+      s1=v&0xffff;
+      s2=(v>>16)&0xffff;
+      return;
+    }
+
     int len1 = len/NMAX;
     int len2 = len%NMAX;
     while(len1-->0) {
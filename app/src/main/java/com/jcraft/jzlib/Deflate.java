@@ -63,12 +63,13 @@ final class Deflate implements Cloneable {
   static final private int STORED=0;
   static final private int FAST=1;
   static final private int SLOW=2;
+  static final private int QUICK=3;
   static final private Config[] config_table;    
   static{
     config_table=new Config[10];
     //                         good  lazy  nice  chain
     config_table[0]=new Config(0,    0,    0,    0, STORED);
-    config_table[1]=new Config(4,    4,    8,    4, FAST);
+    config_table[1]=new Config(4,    4,    8,    4, QUICK);
     config_table[2]=new Config(4,    5,   16,    8, FAST);
     config_table[3]=new Config(4,    6,   32,   32, FAST);
 
@@ -185,6 +186,7 @@ final class Deflate implements Cloneable {
   int w_mask;           // w_size - 1
 
   byte[] window;
+  java.nio.ByteBuffer wbuf; // window, read 8 bytes at a time when matching
   // Sliding window. Input bytes are read into the second half of the window,
   // and move to the first half later to keep a dictionary of at least wSize
   // bytes. With this organization, matches are limited to a distance of
@@ -197,6 +199,11 @@ final class Deflate implements Cloneable {
   // Actual size of window: 2*wSize, except when the user input buffer
   // is directly used as sliding window.
 
+  // Set by benchmarks to get the straight zlib port: deflate_fast for
+  // level 1 and a byte by byte longest_match.
+  static boolean plain=false;
+  boolean fast;
+
   short[] prev;
   // Link to older string with same hash index. To limit the size of this
   // array to 64K, this link is maintained only for the last 32K strings.
@@ -1043,7 +1050,8 @@ final class Deflate implements Cloneable {
 	// of window index 0 (in particular we have to avoid a match
 	// of the string with itself at the start of the input file).
 	if(strategy != Z_HUFFMAN_ONLY){
-	  match_length=longest_match (hash_head);
+	  match_length=fast ? longest_match_fast(hash_head) :
+                              longest_match(hash_head);
 	}
 	// longest_match() sets match_start
       }
@@ -1152,7 +1160,8 @@ final class Deflate implements Cloneable {
 	// of the string with itself at the start of the input file).
 
 	if(strategy != Z_HUFFMAN_ONLY) {
-	  match_length = longest_match(hash_head);
+	  match_length = fast ? longest_match_fast(hash_head) :
+                                longest_match(hash_head);
 	}
 	// longest_match() sets match_start
 
@@ -1317,6 +1326,137 @@ final class Deflate implements Cloneable {
     return lookahead;
   }
 
+  // Same as longest_match, but compares 8 bytes at a time; the first byte
+  // that differs is the lowest non-zero byte of the xor, the window being
+  // read little-endian.  Candidates are screened two bytes at a time.
+  int longest_match_fast(int cur_match){
+    int chain_length = max_chain_length; // max hash chain length
+    int scan = strstart;                 // current string
+    int len;                             // length of current match
+    int best_len = prev_length;          // best match length so far
+    int limit = strstart>(w_size-MIN_LOOKAHEAD) ?
+      strstart-(w_size-MIN_LOOKAHEAD) : 0;
+    int nice_match=this.nice_match;
+    int wmask = w_mask;
+    java.nio.ByteBuffer wbuf = this.wbuf;
+
+    // the two bytes at best_len-1 and the first two, read as shorts
+    short scan_end = wbuf.getShort(scan+best_len-1);
+    short scan_start = wbuf.getShort(scan);
+
+    if (prev_length >= good_match) {
+      chain_length >>= 2;
+    }
+    if (nice_match > lookahead) nice_match = lookahead;
+
+    do {
+      if (wbuf.getShort(cur_match+best_len-1) != scan_end ||
+	  wbuf.getShort(cur_match) != scan_start)      continue;
+
+      // Bytes 0 and 1 are equal, and so is 2 as the hashes are; the last
+      // read ends at scan+MAX_MATCH-1, like the byte by byte loop.
+      len = 2;
+      while(true){
+        long x = wbuf.getLong(scan+len) ^ wbuf.getLong(cur_match+len);
+        if(x != 0){
+          len += Long.numberOfTrailingZeros(x)>>>3;
+          break;
+        }
+        if((len += 8) >= MAX_MATCH) break;
+      }
+      if(len > MAX_MATCH) len = MAX_MATCH;
+
+      if(len>best_len) {
+	match_start = cur_match;
+	best_len = len;
+	if (len >= nice_match) break;
+	scan_end = wbuf.getShort(scan+best_len-1);
+      }
+
+    } while ((cur_match = (prev[cur_match & wmask]&0xffff)) > limit
+	     && --chain_length != 0);
+
+    if (best_len <= lookahead) return best_len;
+    return lookahead;
+  }
+
+  // Level 1: like deflate_fast, but only the head of each hash chain is
+  // tried, and the strings inside a match are not inserted in the hash
+  // table.  Costs a little compression for a lot of speed.
+  int deflate_quick(int flush){
+    int hash_head;
+    int len;
+    boolean bflush;
+    byte[] window = this.window;
+    java.nio.ByteBuffer wbuf = this.wbuf;
+
+    while(true){
+      if(lookahead < MIN_LOOKAHEAD){
+	fill_window();
+	if(lookahead < MIN_LOOKAHEAD && flush == Z_NO_FLUSH){
+	  return NeedMore;
+	}
+	if(lookahead == 0) break; // flush the current block
+      }
+
+      len = 0;
+      hash_head = 0;
+      if(lookahead >= MIN_MATCH){
+	ins_h=((ins_h<<hash_shift)^(window[strstart+(MIN_MATCH-1)]&0xff))&hash_mask;
+        hash_head=(head[ins_h]&0xffff);
+	prev[strstart&w_mask]=head[ins_h];
+	head[ins_h]=(short)strstart;
+
+	if(hash_head!=0 &&
+	   ((strstart-hash_head)&0xffff) <= w_size-MIN_LOOKAHEAD &&
+	   strategy != Z_HUFFMAN_ONLY){
+          // reads at most window[strstart+MAX_MATCH+5], which the slack
+          // at the end of the window covers
+          while(true){
+            long x = wbuf.getLong(strstart+len) ^ wbuf.getLong(hash_head+len);
+            if(x != 0){
+              len += Long.numberOfTrailingZeros(x)>>>3;
+              break;
+            }
+            if((len += 8) >= MAX_MATCH) break;
+          }
+          if(len > MAX_MATCH) len = MAX_MATCH;
+          if(len > lookahead) len = lookahead;
+	}
+      }
+
+      if(len>=MIN_MATCH){
+	bflush=_tr_tally(strstart-hash_head, len-MIN_MATCH);
+	lookahead -= len;
+	strstart += len;
+	ins_h = window[strstart]&0xff;
+	ins_h=(((ins_h)<<hash_shift)^(window[strstart+1]&0xff))&hash_mask;
+      }
+      else{
+	bflush=_tr_tally(0, window[strstart]&0xff);
+	lookahead--;
+	strstart++; 
+      }
+      if(bflush){
+	flush_block_only(false);
+	if(strm.avail_out==0) return NeedMore;
+      }
+    }
+
+    flush_block_only(flush == Z_FINISH);
+    if(strm.avail_out==0){
+      if(flush == Z_FINISH) return FinishStarted;
+      else return NeedMore;
+    }
+    return flush==Z_FINISH ? FinishDone : BlockDone;
+  }
+
+  private int func(int level){
+    int func=config_table[level].func;
+    if(func==QUICK && !fast) func=FAST;
+    return func;
+  }
+
   int deflateInit(int level, int bits, int memlevel){
     return deflateInit(level, Z_DEFLATED, bits, memlevel,
 			Z_DEFAULT_STRATEGY);
@@ -1373,7 +1513,10 @@ final class Deflate implements Cloneable {
     hash_mask = hash_size - 1;
     hash_shift = ((hash_bits+MIN_MATCH-1)/MIN_MATCH);
 
-    window = new byte[w_size*2];
+    // deflate_quick reads up to 7 bytes past a maximal match
+    window = new byte[w_size*2+8];
+    wbuf = java.nio.ByteBuffer.wrap(window).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+    fast = !plain;
     prev = new short[w_size];
     head = new short[hash_size];
 
@@ -1442,7 +1585,7 @@ final class Deflate implements Cloneable {
       return Z_STREAM_ERROR;
     }
 
-    if(config_table[level].func!=config_table[_level].func &&
+    if(func(level)!=func(_level) &&
        strm.total_in != 0) {
       // Flush the last buffer:
       err = strm.deflate(Z_PARTIAL_FLUSH);
@@ -1576,13 +1719,16 @@ final class Deflate implements Cloneable {
     if(strm.avail_in!=0 || lookahead!=0 ||
        (flush != Z_NO_FLUSH && status != FINISH_STATE)) {
       int bstate=-1;
-      switch(config_table[level].func){
+      switch(func(level)){
       case STORED: 
 	bstate = deflate_stored(flush);
 	break;
       case FAST: 
 	bstate = deflate_fast(flush);
 	break;
+      case QUICK: 
+	bstate = deflate_quick(flush);
+	break;
       case SLOW: 
 	bstate = deflate_slow(flush);
 	break;
@@ -1703,6 +1849,7 @@ final class Deflate implements Cloneable {
     dest.d_buf = dest.d_buf;
     dest.l_buf = dup(dest.l_buf);
     dest.window = dup(dest.window);
+    dest.wbuf = java.nio.ByteBuffer.wrap(dest.window).order(java.nio.ByteOrder.LITTLE_ENDIAN);
 
     dest.prev = dup(dest.prev);
     dest.head = dup(dest.head);
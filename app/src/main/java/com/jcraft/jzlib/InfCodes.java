@@ -89,6 +89,10 @@ final class InfCodes{
   int[] dtree;          // distance tree
   int dtree_index;      // distance tree
 
+  // Set by benchmarks to get the zlib 1.1 inflate_fast with its 32 bit
+  // bit buffer instead of inflate_fast64.
+  static boolean plain=false;
+
   private final ZStream z;
   private final InfBlocks s;
   InfCodes(ZStream z, InfBlocks s){
@@ -107,6 +111,7 @@ final class InfCodes{
     dtree = td;
     dtree_index=td_index;
     tree=null;
+    ltp=dtp=null;
   }
 
   int proc(int r){ 
@@ -136,10 +141,18 @@ final class InfCodes{
 	  s.bitb=b;s.bitk=k;
 	  z.avail_in=n;z.total_in+=p-z.next_in_index;z.next_in_index=p;
 	  s.write=q;
-	  r = inflate_fast(lbits, dbits, 
-			   ltree, ltree_index, 
-			   dtree, dtree_index,
-			   s, z);
+	  if(plain){
+	    r = inflate_fast(lbits, dbits, 
+			     ltree, ltree_index, 
+			     dtree, dtree_index,
+			     s, z);
+	  }
+	  else{
+	    r = inflate_fast64(lbits, dbits, 
+			       ltree, ltree_index, 
+			       dtree, dtree_index,
+			       s, z);
+	  }
 
 	  p=z.next_in_index;n=z.avail_in;b=s.bitb;k=s.bitk;
 	  q=s.write;m=q<s.read?s.read-q-1:s.end-q;
@@ -607,4 +620,206 @@ final class InfCodes{
 
     return Z_OK;
   }
+
+  // inflate_fast64 reads each table entry as one int, base<<16|bits<<8|e,
+  // instead of three.  The packed copy of the block's tables is made on
+  // the first fast round of the block; the fixed tables are packed once,
+  // when the class is initialized, so every thread sees them whole.
+  private static final int[] fixed_ltp=pack(InfTree.fixed_tl, null);
+  private static final int[] fixed_dtp=pack(InfTree.fixed_td, null);
+  private int[] ltp, dtp;        // packed ltree and dtree
+  private int[] hufts_p;         // packed InfBlocks.hufts, when used
+  private java.nio.ByteBuffer inb; // z.next_in, read 8 bytes at a time
+
+  private static int[] pack(int[] t, int[] p){
+    if(p==null || p.length<t.length/3){
+      p=new int[t.length/3];
+    }
+    for(int i=0, j=0; j<p.length; i+=3, j++){
+      p[j]=(t[i+2]<<16)|(t[i+1]<<8)|t[i];
+    }
+    return p;
+  }
+
+  private void packTables(int[] tl, int[] td){
+    if(tl==InfTree.fixed_tl && td==InfTree.fixed_td){
+      ltp=fixed_ltp;
+      dtp=fixed_dtp;
+    }
+    else if(tl==td){
+      ltp=dtp=hufts_p=pack(tl, hufts_p);
+    }
+    else{
+      ltp=pack(tl, null);
+      dtp=pack(td, null);
+    }
+  }
+
+  // Same as inflate_fast, but the bit buffer is a long that is filled to
+  // at least 56 bits once per round: enough for a length/distance pair
+  // with all extra bits (15+5+15+13), or for up to three literals, so the
+  // codes themselves never wait for input.  A literal is followed by up
+  // to two more literals decoded straight from the bit buffer.  Called
+  // under the same conditions: m >= 258 and n >= 10.
+
+  int inflate_fast64(int bl, int bd, 
+		     int[] tl, int tl_index,
+		     int[] td, int td_index,
+		     InfBlocks s, ZStream z){
+    int t;                // table index
+    int v;                // packed table entry
+    int e;                // extra bits or operation
+    long b;               // bit buffer
+    int k;                // bits in bit buffer
+    int p;                // input data pointer
+    int n;                // bytes available there
+    int q;                // output window write pointer
+    int m;                // bytes to end of window or read pointer
+    int ml;               // mask for literal/length tree
+    int md;               // mask for distance tree
+    int c;                // bytes to copy
+    int d;                // distance back to copy from
+    int r;                // copy source pointer
+    byte[] window=s.window;
+    if(inb==null || inb.array()!=z.next_in){
+      inb=java.nio.ByteBuffer.wrap(z.next_in).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+    }
+    java.nio.ByteBuffer inb=this.inb;
+
+    if(ltp==null){
+      packTables(tl, td);
+    }
+    int[] lt=ltp, dt=dtp;
+
+    p=z.next_in_index;n=z.avail_in;k=s.bitk;b=(s.bitb&0xffffffffL)&((1L<<k)-1);
+    q=s.write;m=q<s.read?s.read-q-1:s.end-q;
+
+    ml = inflate_mask[bl];
+    md = inflate_mask[bd];
+
+    outer:
+    do {                          // assume called with m >= 258 && n >= 10
+      // top up to 56..63 bits with one 8-byte read; the bits of the byte
+      // read but not counted are ORed in again, unchanged, next time
+      b|=inb.getLong(p)<<k;
+      c=(63-k)>>>3;
+      p+=c; n-=c; k|=56;
+
+      t=tl_index+((int)b&ml);
+      v=lt[t];
+      if ((v&0xff) == 0){
+	b>>>=(v>>>8)&0xff; k-=(v>>>8)&0xff;
+	window[q++] = (byte)(v>>>16);
+	m--;
+	// the round took at most 15 bits, so another 15 bit code is in b
+	for(int i=0; i<2 && k>=15; i++){
+	  v=lt[tl_index+((int)b&ml)];
+	  if ((v&0xff) != 0) break;
+	  b>>>=(v>>>8)&0xff; k-=(v>>>8)&0xff;
+	  window[q++] = (byte)(v>>>16);
+	  m--;
+	}
+	continue;
+      }
+      // follow sub-tables down to a literal, a length or the end of block
+      while(((e=v&0xff)&(16|32|64))==0){
+	b>>>=(v>>>8)&0xff; k-=(v>>>8)&0xff;
+	t+=(v>>>16)+((int)b&inflate_mask[e]);
+	v=lt[t];
+	if((v&0xff)==0){
+	  b>>>=(v>>>8)&0xff; k-=(v>>>8)&0xff;
+	  window[q++]=(byte)(v>>>16);
+	  m--;
+	  continue outer;
+	}
+      }
+      b>>>=(v>>>8)&0xff; k-=(v>>>8)&0xff;
+
+      if((e&16)==0){
+	if((e&32)!=0){
+	  return fast64_done(Z_STREAM_END, b, k, p, n, q, s, z);
+	}
+	z.msg="invalid literal/length code";
+	return fast64_done(Z_DATA_ERROR, b, k, p, n, q, s, z);
+      }
+
+      e &= 15;
+      c = (v>>>16) + ((int)b & inflate_mask[e]);
+      b>>>=e; k-=e;
+
+      // decode distance base of block to copy
+      t=td_index+((int)b&md);
+      v=dt[t];
+      while(((e=v&0xff)&(16|64))==0){
+	b>>>=(v>>>8)&0xff; k-=(v>>>8)&0xff;
+	t+=(v>>>16)+((int)b&inflate_mask[e]);
+	v=dt[t];
+      }
+      b>>>=(v>>>8)&0xff; k-=(v>>>8)&0xff;
+      if((e&16)==0){
+	z.msg = "invalid distance code";
+	return fast64_done(Z_DATA_ERROR, b, k, p, n, q, s, z);
+      }
+
+      // get extra bits to add to distance base
+      e &= 15;
+      d = (v>>>16) + ((int)b&inflate_mask[e]);
+      b>>>=e; k-=e;
+
+      // do the copy
+      m -= c;
+      r=q-d;
+      if (r < 0){               // offset after destination
+	do{
+	  r+=s.end;             // force pointer in window
+	}while(r<0);            // covers invalid distances
+	e=s.end-r;
+	if(c>e){                // if source crosses,
+	  c-=e;                 // wrapped copy
+	  if(q-r>0 && e>(q-r)){           
+	    do{window[q++] = window[r++];}
+	    while(--e!=0);
+	  }
+	  else{
+	    System.arraycopy(window, r, window, q, e);
+	    q+=e;
+	  }
+	  r = 0;                // copy rest from start of window
+	}
+      }
+
+      // copy all or what's left; overlapping copies repeat the pattern,
+      // which arraycopy would not
+      if(q-r>0 && c>(q-r)){           
+	if(q-r==1){
+	  java.util.Arrays.fill(window, q, q+c, window[r]);
+	  q+=c;
+	}
+	else{
+	  do{window[q++] = window[r++];}
+	  while(--c!=0);
+	}
+      }
+      else{
+	System.arraycopy(window, r, window, q, c);
+	q+=c;
+      }
+    } 
+    while(m>=258 && n>= 10);
+
+    return fast64_done(Z_OK, b, k, p, n, q, s, z);
+  }
+
+  // Hands whole unused bytes in the bit buffer back to the input and
+  // stores the state, for inflate_fast64.
+  private static int fast64_done(int r, long b, int k, int p, int n, int q,
+				 InfBlocks s, ZStream z){
+    int c=z.avail_in-n;c=(k>>3)<c?k>>3:c;n+=c;p-=c;k-=c<<3;
+
+    s.bitb=(int)(b&((1L<<k)-1));s.bitk=k;
+    z.avail_in=n;z.total_in+=p-z.next_in_index;z.next_in_index=p;
+    s.write=q;
+
+    return r;
+  }
 }
@@ -116,9 +116,15 @@ public class AsyncFileTasks {
             try {
 
                 // copy/move files
+                // plain files within directories get copied several at a time
                 FileUtils.DirPreScan dps = preScan ? new FileUtils.DirPreScan () : null;
-                if (moveMode) FileUtils.moveFile (oldFile, newFile, dps, this);
-                         else FileUtils.copyFile (oldFile, newFile, dps, this);
+                FileUtils.CopyPool pool = new FileUtils.CopyPool ();
+                try {
+                    if (moveMode) FileUtils.moveFile (oldFile, newFile, dps, this, pool);
+                             else FileUtils.copyFile (oldFile, newFile, dps, this, pool);
+                } finally {
+                    pool.shutdown ();
+                }
 
             } finally {
                 // that selected is done
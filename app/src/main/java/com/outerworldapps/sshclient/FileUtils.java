@@ -28,16 +28,34 @@ package com.outerworldapps.sshclient;
 import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class FileUtils {
     public static final String TAG = "SshClient";
 
     public static final int PARTIALUPDATEMILLIS = 123;
+    public static final int SEGSAVEMILLIS = 1000;
+
+    // files at least this big copied from an ssh host to a local file
+    // get downloaded by SshIFile.getSegmented()
+    public static final long SEGMENTEDMIN = 2 * SshIFile.SEGLENGTH;
+
+    // files a CopyPool copies at once.  each copy can hold a channel on both ends
+    // of the same ssh session, leaving a couple for the directory walker.
+    public static final int COPYTHREADS = (SshIFile.MAXCHANNELS - 2) / 2;
+    public static final int COPYAHEAD  = 32;   // how far down a directory a CopyPool starts files
+    public static final int DELETEBATCH = 256; // plain files deleteFile() removes at a time from an ssh host
 
     public static final int DIRENTRYOVERHEAD = 60000;  // how many bytes we could transfer in time it takes to
                                                        // begin & end transferring a file
@@ -81,6 +99,17 @@ public class FileUtils {
      */
     public static long copyFile (IFile oldFile, IFile newFile, DirPreScan preScan, XferListener xferListener)
             throws Exception
+    {
+        return copyFile (oldFile, newFile, preScan, xferListener, null);
+    }
+
+    /**
+     * Copy a file and all its descendants.
+     * If given a pool, the plain files in directories are copied by the pool's threads.
+     * Returns number of bytes copied (-1 if files identical).
+     */
+    public static long copyFile (IFile oldFile, IFile newFile, DirPreScan preScan, XferListener xferListener, CopyPool pool)
+            throws Exception
     {
         if (oldFile.equals (newFile)) return -1;
 
@@ -149,29 +178,56 @@ public class FileUtils {
                     // if partial output file exists, call in to copyFile() anyway,
                     // and let it sort out if it can use the partial copy.
                     sortDirectory (childs);
+                    CopyTask[] tasks = (pool == null) ? null : new CopyTask[childs.length];
+                    int ahead = 0;
                     int i = 0;
-                    for (IFile oldChild : childs) {
+                    try {
+                        for (int n = 0; n < childs.length; n ++) {
+                            IFile oldChild = childs[n];
+
+                            // have the pool start on the plain files coming up
+                            // if we can't tell what one is, leave it to be done below in its turn
+                            while ((tasks != null) && (ahead < childs.length) && (ahead < n + COPYAHEAD)) {
+                                IFile aheadChild = childs[ahead];
+                                try {
+                                    if (!aheadChild.isDirectory ()) {
+                                        tasks[ahead] = pool.start (aheadChild, tmpFile.getChildFile (aheadChild.getName ()), xferListener);
+                                    }
+                                } catch (IOException ignored) {
+                                }
+                                ahead ++;
+                            }
 
-                        // allow a few bytes copied for the directory entry itself
-                        String oldName = oldChild.getName ();
-                        sofar += oldName.length () + DIRENTRYOVERHEAD;
+                            // allow a few bytes copied for the directory entry itself
+                            String oldName = oldChild.getName ();
+                            sofar += oldName.length () + DIRENTRYOVERHEAD;
 
-                        // compute corresponding output file name
-                        IFile newChild = tmpFile.getChildFile (oldName);
+                            // compute corresponding output file name
+                            IFile newChild = tmpFile.getChildFile (oldName);
 
-                        // get the pre-scan info for the sub-directory if any
-                        DirPreScan subScan = null;
-                        if (preScan != null) subScan = preScan.subScan.get (oldChild.getName ());
+                            // get the pre-scan info for the sub-directory if any
+                            DirPreScan subScan = null;
+                            if (preScan != null) subScan = preScan.subScan.get (oldChild.getName ());
 
-                        // copy the file or sub-directory
-                        // We can safely skip if already exists cuz that means we copied it previously as this is a temp
-                        // directory.
-                        if (!newChild.exists ()) sofar += copyFile (oldChild, newChild, subScan, xferListener);
-                        else if (!newChild.isDirectory ()) sofar += newChild.length ();
-                        else if (subScan != null) sofar += subScan.total;
+                            // copy the file or sub-directory
+                            // We can safely skip if already exists cuz that means we copied it previously as this is a temp
+                            // directory.
+                            if ((tasks != null) && (tasks[n] != null)) sofar += tasks[n].finish ();
+                            else if (!newChild.exists ()) sofar += copyFile (oldChild, newChild, subScan, xferListener, pool);
+                            else if (!newChild.isDirectory ()) sofar += newChild.length ();
+                            else if (subScan != null) sofar += subScan.total;
 
-                        // update amount done in this directory
-                        xferListener.partialCopy ((preScan == null) ? ++ i : sofar);
+                            // update amount done in this directory
+                            xferListener.partialCopy ((preScan == null) ? ++ i : sofar);
+                        }
+                    } finally {
+
+                        // if we bailed out, don't let the pool go on with the rest of the directory
+                        if (tasks != null) {
+                            for (CopyTask task : tasks) {
+                                if (task != null) task.cancel ();
+                            }
+                        }
                     }
                 } else {
 
@@ -193,6 +249,23 @@ public class FileUtils {
                         // assume we don't get paused during copy
                         paused = false;
 
+                        // big downloads go over several channels at once,
+                        // but not from a CopyPool thread as its channels come out of the same budget
+                        if ((oldFile instanceof SshIFile) && (tmpFile instanceof FileIFile) && (total >= SEGMENTEDMIN) &&
+                                !(xferListener instanceof CopyTask)) {
+                            paused = copySegmented ((SshIFile) oldFile, tmpFile, total, xferListener);
+                            if (!paused) sofar = total;
+                            continue;
+                        }
+
+                        // both on the same server, have the server copy it
+                        if ((oldFile instanceof SshIFile) && (tmpFile instanceof SshIFile) &&
+                                ((SshIFile) tmpFile).canCopyOnServer ((SshIFile) oldFile)) {
+                            paused = copyOnServer ((SshIFile) oldFile, (SshIFile) tmpFile, total, xferListener);
+                            if (!paused) sofar = total;
+                            continue;
+                        }
+
                         // open source file first to make sure it is readable before attempting to create destination file
                         InputStream seqis = null;
                         RAInputStream ranis = oldFile.getRAInputStream ();
@@ -283,6 +356,298 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Copy a large file from an ssh host over several channels at once.
+     * How much of each segment is done is kept in a ...$$$SEGS$$$ file next to the temp
+     * so an interrupted copy can pick up each segment where it left off.
+     * Returns true if paused before finishing.
+     */
+    private static boolean copySegmented (SshIFile oldFile, IFile tmpFile, final long total, final XferListener xferListener)
+            throws Exception
+    {
+        final IFile segFile = tmpFile.getParentFile ().getChildFile (tmpFile.getName () + ".$$$SEGS$$$");
+        final long[] done = new long[(int)((total + SshIFile.SEGLENGTH - 1) / SshIFile.SEGLENGTH)];
+
+        boolean resume = tmpFile.exists () && segFile.exists ();
+        RAOutputStream ranos = tmpFile.getRAOutputStream (IFile.OSMODE_APPEND);
+        boolean finished = false;
+        try {
+            if (resume) {
+                readSegFile (segFile, total, done);
+            } else {
+
+                // maybe a partial sequential copy, all but the last bit of it is good
+                long skip = ranos.length ();
+                skip = (skip > 16384) ? (skip - 4096) & -4096 : 0;
+                for (int seg = 0; seg < done.length; seg ++) {
+                    long segbeg = seg * SshIFile.SEGLENGTH;
+                    done[seg] = Math.max (0, Math.min (skip - segbeg, Math.min (SshIFile.SEGLENGTH, total - segbeg)));
+                }
+                writeSegFile (segFile, total, done);
+            }
+
+            finished = oldFile.getSegmented (ranos, total, done, new SshIFile.SegmentProgress () {
+                private long nextsave = SystemClock.uptimeMillis () + SEGSAVEMILLIS;
+
+                @Override
+                public boolean progress () throws Exception
+                {
+                    long sofar = 0;
+                    synchronized (done) {
+                        for (long d : done) sofar += d;
+                    }
+                    xferListener.partialCopy (sofar);
+                    long now = SystemClock.uptimeMillis ();
+                    if (nextsave <= now) {
+                        nextsave = now + SEGSAVEMILLIS;
+                        writeSegFile (segFile, total, done);
+                    }
+                    return xferListener.paused () == null;
+                }
+            });
+            ranos.flush ();
+        } finally {
+            ranos.close ();
+            if (!finished) writeSegFile (segFile, total, done);
+        }
+        if (finished) segFile.delete ();
+        return !finished;
+    }
+
+    /**
+     * Have the ssh server copy a file to somewhere else on the same server.
+     * Like the sequential copy, picks up where a previous copy left off
+     * if enough of it is already there.
+     * Returns true if paused before finishing.
+     */
+    private static boolean copyOnServer (SshIFile oldFile, SshIFile tmpFile, long total, final XferListener xferListener)
+            throws Exception
+    {
+        long skip = tmpFile.exists () ? tmpFile.length () : 0;
+        if ((skip > 16384) && (skip > total / 128) && (skip <= total)) {
+            skip = (skip - 4096) & -4096;
+        } else {
+            skip = 0;
+        }
+
+        return !tmpFile.copyOnServer (oldFile, skip, new SshIFile.CopyProgress () {
+            @Override
+            public boolean progress (long sofar) throws Exception
+            {
+                xferListener.partialCopy (sofar);
+                return xferListener.paused () == null;
+            }
+        });
+    }
+
+    private static void readSegFile (IFile segFile, long total, long[] done)
+    {
+        try {
+            DataInputStream dis = new DataInputStream (segFile.getInputStream ());
+            try {
+                if ((dis.readLong () == total) && (dis.readInt () == done.length)) {
+                    for (int seg = 0; seg < done.length; seg ++) done[seg] = dis.readLong ();
+                }
+            } finally {
+                dis.close ();
+            }
+        } catch (IOException ioe) {
+            Log.w (TAG, "error reading " + segFile.getAbsolutePath (), ioe);
+            for (int seg = 0; seg < done.length; seg ++) done[seg] = 0;
+        }
+    }
+
+    private static void writeSegFile (IFile segFile, long total, long[] done)
+            throws IOException
+    {
+        DataOutputStream dos = new DataOutputStream (segFile.getOutputStream (IFile.OSMODE_CREATE));
+        try {
+            dos.writeLong (total);
+            dos.writeInt (done.length);
+            synchronized (done) {
+                for (long d : done) dos.writeLong (d);
+            }
+        } finally {
+            dos.close ();
+        }
+    }
+
+    /**
+     * Threads that copy the plain files of a directory tree several at a time,
+     * so thousands of small files don't each wait out their round trips in turn.
+     */
+    public static class CopyPool {
+        private ExecutorService executor = Executors.newFixedThreadPool (COPYTHREADS);
+        private volatile boolean stopped;
+
+        private CopyTask start (IFile oldFile, IFile newFile, XferListener xferListener)
+        {
+            CopyTask task = new CopyTask (this, oldFile, newFile, xferListener);
+            executor.execute (task);
+            return task;
+        }
+
+        /**
+         * Stop anything still copying and wait for the threads to exit.
+         */
+        public void shutdown () throws InterruptedException
+        {
+            stopped = true;
+            executor.shutdownNow ();
+            //noinspection StatementWithEmptyBody
+            while (!executor.awaitTermination (1, TimeUnit.SECONDS)) { }
+        }
+    }
+
+    /**
+     * A plain file being copied by a CopyPool thread.
+     * The XferListener calls are saved up and made by finish() in the
+     * directory-walking thread, so the listener sees them in the same
+     * order as if the files were copied one at a time.
+     */
+    private static class CopyTask implements Runnable, XferListener {
+        private final static int XE_START = 0;
+        private final static int XE_PARTIAL = 1;
+        private final static int XE_END = 2;
+        private final static int XE_EXCEPTION = 3;
+
+        private static class XferEvent {
+            public int what;
+            public IFile oldFile;
+            public IFile newFile;
+            public long bytes;
+            public Exception e;
+        }
+
+        private boolean done;
+        private CopyPool pool;
+        private Exception thrown;
+        private IFile oldFile;
+        private IFile newFile;
+        private LinkedList<XferEvent> events = new LinkedList<> ();
+        private long copied;
+        private volatile boolean cancelled;
+        private XferListener xferListener;
+
+        public CopyTask (CopyPool pool, IFile oldFile, IFile newFile, XferListener xferListener)
+        {
+            this.pool = pool;
+            this.oldFile = oldFile;
+            this.newFile = newFile;
+            this.xferListener = xferListener;
+        }
+
+        // in pool thread, copy the file the same way the directory loop would
+        @Override
+        public void run ()
+        {
+            long rc = 0;
+            Exception e = null;
+            try {
+                if (!pool.stopped && !cancelled) {
+                    if (!newFile.exists ()) rc = copyFile (oldFile, newFile, null, this);
+                    else if (!newFile.isDirectory ()) rc = newFile.length ();
+                }
+            } catch (Exception ee) {
+                e = ee;
+            }
+            synchronized (this) {
+                copied = rc;
+                thrown = e;
+                done = true;
+                notifyAll ();
+            }
+        }
+
+        public void cancel ()
+        {
+            cancelled = true;
+        }
+
+        /**
+         * In directory-walking thread, pass the saved-up listener calls on
+         * as they come in until the copy completes.
+         * Returns number of bytes copied.
+         */
+        public long finish () throws Exception
+        {
+            while (true) {
+                XferEvent event;
+                synchronized (this) {
+                    while (events.isEmpty () && !done) wait ();
+                    event = events.pollFirst ();
+                }
+                if (event == null) break;
+                switch (event.what) {
+                    case XE_START: xferListener.startFile (event.oldFile, event.newFile, event.bytes); break;
+                    case XE_PARTIAL: xferListener.partialCopy (event.bytes); break;
+                    case XE_END: xferListener.endOfFile (); break;
+                    case XE_EXCEPTION: xferListener.exception (event.oldFile, event.newFile, event.e); break;
+                }
+            }
+            if (thrown != null) throw thrown;
+            return copied;
+        }
+
+        // XferListener, called in pool thread
+
+        @Override
+        public synchronized void startFile (IFile oldFile, IFile newFile, long bytes)
+        {
+            XferEvent event = new XferEvent ();
+            event.what = XE_START;
+            event.oldFile = oldFile;
+            event.newFile = newFile;
+            event.bytes = bytes;
+            events.addLast (event);
+            notifyAll ();
+        }
+
+        @Override
+        public synchronized void partialCopy (long bytes)
+        {
+            if (!events.isEmpty () && (events.getLast ().what == XE_PARTIAL)) {
+                events.getLast ().bytes = bytes;
+            } else {
+                XferEvent event = new XferEvent ();
+                event.what = XE_PARTIAL;
+                event.bytes = bytes;
+                events.addLast (event);
+            }
+            notifyAll ();
+        }
+
+        @Override
+        public synchronized void endOfFile ()
+        {
+            XferEvent event = new XferEvent ();
+            event.what = XE_END;
+            events.addLast (event);
+            notifyAll ();
+        }
+
+        @Override
+        public Object paused () throws Exception
+        {
+            if (pool.stopped || cancelled) throw new InterruptedException ("copy stopped");
+            return xferListener.paused ();
+        }
+
+        // the user gets asked about it when finish() gets here,
+        // until then go on as if they said to continue
+        @Override
+        public synchronized void exception (IFile oldFile, IFile newFile, Exception e)
+        {
+            XferEvent event = new XferEvent ();
+            event.what = XE_EXCEPTION;
+            event.oldFile = oldFile;
+            event.newFile = newFile;
+            event.e = e;
+            events.addLast (event);
+            notifyAll ();
+        }
+    }
+
     /**
      * Given a list of files in a directory, compute the directory's total disk usage.
      * @param preScan = filled in with directory's total disk usage
@@ -292,6 +657,7 @@ public class FileUtils {
             throws Exception
     {
         HashMap<String,DirPreScan> subScan = new HashMap<> ();
+        SshIFile.fetchAttrs (childs);
         for (IFile child : childs) {
             String name = child.getName ();
             preScan.total += name.length () + DIRENTRYOVERHEAD;
@@ -329,17 +695,49 @@ public class FileUtils {
             xferListener.startFile (file, null, childs.length);
             try {
                 sortDirectory (childs);
+
+                // plain files on an ssh host get deleted a batch at a time
+                boolean batched = file instanceof SshIFile;
+                if (batched) SshIFile.fetchAttrs (childs);
+                ArrayList<IFile> plains = new ArrayList<> ();
                 int i = 0;
                 for (IFile child : childs) {
-                    deleteFile (child, xferListener);
-                    xferListener.partialCopy (++ i);
+                    if (batched && !child.isDirectory ()) {
+                        plains.add (child);
+                        if (plains.size () >= DELETEBATCH) i = deletePlains (plains, i, xferListener);
+                    } else {
+                        i = deletePlains (plains, i, xferListener);
+                        deleteFile (child, xferListener);
+                        xferListener.partialCopy (++ i);
+                    }
                 }
+                deletePlains (plains, i, xferListener);
             } finally {
                 xferListener.endOfFile ();
             }
         }
 
-        // wait here as long as we are paused
+        // delete
+        waitWhilePaused (xferListener);
+        file.delete ();
+    }
+
+    private static int deletePlains (ArrayList<IFile> plains, int i, XferListener xferListener)
+            throws Exception
+    {
+        if (!plains.isEmpty ()) {
+            waitWhilePaused (xferListener);
+            SshIFile.deleteFiles (plains);
+            i += plains.size ();
+            plains.clear ();
+            xferListener.partialCopy (i);
+        }
+        return i;
+    }
+
+    private static void waitWhilePaused (XferListener xferListener)
+            throws Exception
+    {
         Object pauseLock = xferListener.paused ();
         if (pauseLock != null) {
             //noinspection SynchronizationOnLocalVariableOrMethodParameter
@@ -349,9 +747,6 @@ public class FileUtils {
                 }
             }
         }
-
-        // delete
-        file.delete ();
     }
 
     /**
@@ -359,6 +754,12 @@ public class FileUtils {
      */
     public static void moveFile (IFile oldFile, IFile newFile, DirPreScan preScan, XferListener xferListener)
             throws Exception
+    {
+        moveFile (oldFile, newFile, preScan, xferListener, null);
+    }
+
+    public static void moveFile (IFile oldFile, IFile newFile, DirPreScan preScan, XferListener xferListener, CopyPool pool)
+            throws Exception
     {
         if (oldFile.equals (newFile)) return;
 
@@ -386,7 +787,7 @@ public class FileUtils {
             /*
              * Failed, try copy then delete old files.
              */
-            copyFile (oldFile, newFile, preScan, xferListener);
+            copyFile (oldFile, newFile, preScan, xferListener, pool);
 
             IFile tmpFile = oldFile.getParentFile ().getChildFile (oldFile.getName () + ".$$$DEAD$$$");
             oldFile.renameTo (tmpFile);
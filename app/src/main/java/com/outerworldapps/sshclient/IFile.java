@@ -245,6 +245,14 @@ public abstract class IFile {
         }
     }
 
+    public class SshCopyException extends IFileException {
+        public SshCopyException (Exception cause)
+        {
+            super ("copy() failed");
+            initCause (cause);
+        }
+    }
+
     public class SshGetHomeException extends IFileException {
         public SshGetHomeException (Exception cause)
         {
@@ -315,11 +315,14 @@ public class LocalKeyPairMenu {
         rb2a.setText ("DSA  ");
         RadioButton rb2b = sshclient.MyRadioButton ();
         rb2b.setText ("RSA  ");
+        RadioButton rb2c = sshclient.MyRadioButton ();
+        rb2c.setText ("Ed25519  ");
         final RadioGroup rg2 = new RadioGroup (sshclient);
         rg2.setLayoutParams (new LinearLayout.LayoutParams (ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT, 0.0F));
         rg2.setOrientation (LinearLayout.HORIZONTAL);
         rg2.addView (rb2a, 0, new LinearLayout.LayoutParams (ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.MATCH_PARENT, 1.0F));
         rg2.addView (rb2b, 1, new LinearLayout.LayoutParams (ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.MATCH_PARENT, 1.0F));
+        rg2.addView (rb2c, 2, new LinearLayout.LayoutParams (ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.MATCH_PARENT, 1.0F));
         llv.addView (rg2);
 
         RadioButton rb3a = sshclient.MyRadioButton ();
@@ -369,6 +372,7 @@ public class LocalKeyPairMenu {
                     int type = KeyPair.UNKNOWN;
                     if (trb.startsWith ("DSA")) type = KeyPair.DSA;
                     if (trb.startsWith ("RSA")) type = KeyPair.RSA;
+                    if (trb.startsWith ("Ed25519")) type = KeyPair.ED25519;  // fixed size, ignores size buttons
                     if (type == KeyPair.UNKNOWN) throw new Exception ("no key format selected");
 
                     String srb = ((RadioButton)rg3.findViewById (rg3.getCheckedRadioButtonId ())).getText ().toString ();
@@ -407,6 +407,7 @@ public class MyHostKeyRepo implements HostKeyRepository {
         int hkt = 0;
         if (type.equals ("ssh-dss")) hkt = HostKey.SSHDSS;
         if (type.equals ("ssh-rsa")) hkt = HostKey.SSHRSA;
+        if (type.equals ("ssh-ed25519")) hkt = HostKey.ED25519;
         return hkt;
     }
 
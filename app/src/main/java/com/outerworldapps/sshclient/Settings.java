@@ -62,6 +62,7 @@ public class Settings {
     public _Bool vt100_kbd  = new _Bool ("vt100KB",    "VT-100 keyboard (shell)", false);
     public _Bool wrap_lines = new _Bool ("wrapLines",  "Wrap long lines",         true);
     public _Bool dont_beep  = new _Bool ("dontBeep",   "Don't make beep sound",   false);
+    public _Bool nat_zlib   = new _Bool ("nativeZlib", "Native zlib (VNC)",       true);
 
     public _FontSize font_size = new _FontSize ("fontSize", "Font size", 20, TEXT_SIZE_MIN, TEXT_SIZE_MAX);
     public _MaxChars max_chars = new _MaxChars ("maxChars", "Max total chars", 65536, 64, 1024*1024);
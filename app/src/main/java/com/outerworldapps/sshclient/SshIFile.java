@@ -26,26 +26,63 @@ package com.outerworldapps.sshclient;
 
 
 import android.net.Uri;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
+import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SftpProgressMonitor;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class SshIFile extends IFile {
     public final static String TAG = "SshClient";
 
+    public final static int  SEGCHANNELS = 4;          // channels getSegmented() downloads over at once
+    public final static long SEGLENGTH   = 16 << 20;   // bytes per getSegmented() segment
+    public final static int  MAXCHANNELS = 8;          // channels to open on one session before waiting for one
+                                                       // (OpenSSH MaxSessions defaults to 10)
+    public final static int  CHANNELWAITMILLIS = 1000; // how long to wait before opening one past MAXCHANNELS anyway
+    public final static int  RABLOCKSIZE   = 65536;    // random access reads are done in blocks this size
+    public final static int  RACACHEBLOCKS = 64;       // random access stream keeps this many blocks
+    public final static int  RASTREAMAHEAD = 8;        // random access stream goes sequential after reading this many ahead
+
+    /**
+     * Called by getSegmented() every PARTIALUPDATEMILLIS in the calling thread.
+     * Return false to stop downloading.
+     */
+    public interface SegmentProgress {
+        boolean progress () throws Exception;
+    }
+
+    public final static int CPPOLLMILLIS = 500;         // copyOnServer() checks on 'cp' this often
+
+    /**
+     * Called by copyOnServer() in the calling thread as the copy progresses.
+     * Return false to stop copying.
+     */
+    public interface CopyProgress {
+        boolean progress (long sofar) throws Exception;
+    }
+
     private static class ChanEnt {
         public ChannelSftp chan;
         int idle;
@@ -59,11 +96,15 @@ public class SshIFile extends IFile {
     private static AtomicLong lastprobe = new AtomicLong (0);
     private static CleanupThread cleanupThread;
     private static final NNHashMap<Session,LinkedList<ChanEnt>> channelPool = new NNHashMap<> ();
+    private static final NNHashMap<Session,Integer> channelsOpen = new NNHashMap<> ();  // locked by channelPool
+    private static final WeakHashMap<Session,Boolean> cpAvailable = new WeakHashMap<> ();
 
     private GidUid giduid;         // holds the gid/uid of the user@host:port connected to
     private Session session;       // TCP connection that is logged in
     private SftpATTRS cacheLStat;  // attributes for the link itself
     private SftpATTRS cacheStat;   // attributes for the target of the link
+    private String cacheLink;      // what the link points to, good while cacheLStat is still cacheLinkLStat
+    private SftpATTRS cacheLinkLStat;
     private String abspath;        // absolute path name returned by getAbsolutePath()
                                    // doesn't have '/' on the end, even if directory, unless it is only '/'
     private Uri myUri;             // my URI, eg, ssh://user@host:port/path
@@ -264,6 +305,7 @@ public class SshIFile extends IFile {
             if (!lstat.isLink ()) return null;
 
             // now should be ok to read link
+            if ((cacheLink != null) && (cacheLinkLStat == lstat)) return cacheLink;
             try {
                 return chanEnt.chan.readlink (abspath);
             } catch (SftpException se) {
@@ -464,18 +506,29 @@ public class SshIFile extends IFile {
     // succeed if already exists
     private void mkdirs (ChanEnt chanEnt, String ap) throws IOException
     {
-        SftpATTRS stat;
+        // stat the path and all its parents in one go
+        LinkedList<String> aps = new LinkedList<> ();
+        for (String p = ap; p.length () > 0; p = p.substring (0, p.lastIndexOf ('/'))) {
+            aps.addFirst (p);
+        }
+        ChannelSftp.Batch batch = chanEnt.chan.batch ();
         try {
-            stat = getStat (chanEnt, ap);
+            for (String p : aps) batch.stat (p);
+            batch.run ();
         } catch (SftpException se) {
             throw new SshStatException (se);
         }
-        if (stat == null) {
-            int j = ap.lastIndexOf ('/');
-            mkdirs (chanEnt, ap.substring (0, j));
-            mkdir (chanEnt, ap);
-        } else if (!stat.isDir ()) {
-            throw new NotADirException ();
+
+        // make the missing ones, outermost first
+        for (int i = 0; i < aps.size (); i ++) {
+            SftpATTRS stat = batch.getAttrs (i);
+            if (stat == null) {
+                SftpException se = batch.getException (i);
+                if (!se.getMessage ().contains ("No such file")) throw new SshStatException (se);
+                mkdir (chanEnt, aps.get (i));
+            } else if (!stat.isDir ()) {
+                throw new NotADirException ();
+            }
         }
     }
 
@@ -517,6 +570,10 @@ public class SshIFile extends IFile {
     // null if doesn't exist
     private SftpATTRS getStat () throws IOException
     {
+        // attributes from the directory listing do if it isn't a link
+        if ((cacheStat == null) && (cacheLStat != null) && !cacheLStat.isLink ()) {
+            cacheStat = cacheLStat;
+        }
         if (cacheStat == null) {
             ChanEnt chanEnt = aboutToUseChannel ();
             try {
@@ -598,28 +655,34 @@ public class SshIFile extends IFile {
     /**
      * Set up chanEnt pointer to a channel, grabbing an unused one
      * or opening & connecting a new one if necessary.
+     * Waits a bit for one to be freed up if the session already has MAXCHANNELS open,
+     * then opens one anyway, as the caller may be holding another one that it is
+     * waiting for.  If the server won't have any more, the open fails.
      */
     private ChanEnt aboutToUseChannel () throws IOException
     {
-        ChanEnt chanEnt;
+        long deadline = SystemClock.uptimeMillis () + CHANNELWAITMILLIS;
         synchronized (channelPool) {
-            if (!channelPool.containsKey (session)) {
-                channelPool.put (session, new LinkedList<ChanEnt> ());
-            }
-            LinkedList<ChanEnt> channelList = channelPool.nnget (session);
-            if (channelList.isEmpty ()) {
-                try {
-                    chanEnt = new ChanEnt ();
-                    chanEnt.chan = (ChannelSftp) session.openChannel ("sftp");
-                    chanEnt.chan.connect ();
-                } catch (JSchException je) {
-                    throw new SshOpenException (je);
+            while (true) {
+                if (!channelPool.containsKey (session)) {
+                    channelPool.put (session, new LinkedList<ChanEnt> ());
                 }
-            } else {
-                chanEnt = channelList.removeFirst ();
+                LinkedList<ChanEnt> channelList = channelPool.nnget (session);
+                if (!channelList.isEmpty ()) return channelList.removeFirst ();
+                if (countChannels (0) < MAXCHANNELS) break;
+                if (!waitForChannel (deadline)) break;
+            }
+            countChannels (1);
+            try {
+                ChanEnt chanEnt = new ChanEnt ();
+                chanEnt.chan = (ChannelSftp) session.openChannel ("sftp");
+                chanEnt.chan.connect ();
+                return chanEnt;
+            } catch (JSchException je) {
+                countChannels (-1);
+                throw new SshOpenException (je);
             }
         }
-        return chanEnt;
     }
 
     /**
@@ -634,6 +697,7 @@ public class SshIFile extends IFile {
             }
             chanEnt.idle = 0;
             channelPool.nnget (session).addLast (chanEnt);
+            channelPool.notifyAll ();
             if (cleanupThread == null) {
                 cleanupThread = new CleanupThread ();
                 cleanupThread.start ();
@@ -641,6 +705,70 @@ public class SshIFile extends IFile {
         }
     }
 
+    /**
+     * Count an exec channel against the session's MAXCHANNELS,
+     * closing an idle sftp channel to make room if need be.
+     * Like aboutToUseChannel(), waits only so long for room.
+     */
+    private void aboutToUseExecChannel () throws IOException
+    {
+        long deadline = SystemClock.uptimeMillis () + CHANNELWAITMILLIS;
+        synchronized (channelPool) {
+            while (countChannels (0) >= MAXCHANNELS) {
+                LinkedList<ChanEnt> channelList = channelPool.get (session);
+                if ((channelList != null) && !channelList.isEmpty ()) {
+                    channelList.removeFirst ().chan.disconnect ();
+                    countChannels (-1);
+                } else if (!waitForChannel (deadline)) {
+                    break;
+                }
+            }
+            countChannels (1);
+        }
+    }
+
+    private void finishedUsingExecChannel (ChannelExec chan)
+    {
+        if (chan != null) chan.disconnect ();
+        synchronized (channelPool) {
+            countChannels (-1);
+            channelPool.notifyAll ();
+        }
+    }
+
+    /**
+     * Adjust the number of channels open on the session (caller locks channelPool).
+     * @return new number open
+     */
+    private int countChannels (int delta)
+    {
+        return countChannels (session, delta);
+    }
+    private static int countChannels (Session session, int delta)
+    {
+        Integer open = channelsOpen.get (session);
+        int n = ((open == null) ? 0 : open) + delta;
+        if (n > 0) channelsOpen.put (session, n);
+              else channelsOpen.remove (session);
+        return n;
+    }
+
+    /**
+     * Wait for a channel to be freed up (caller locks channelPool).
+     * @return false: deadline passed
+     */
+    private static boolean waitForChannel (long deadline) throws InterruptedIOException
+    {
+        long now = SystemClock.uptimeMillis ();
+        if (now >= deadline) return false;
+        try {
+            channelPool.wait (deadline - now);
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException ("waiting for channel");
+        }
+        return true;
+    }
+
     /**
      * Scan the channelPool for channels that haven't been used in a while
      * and close them.
@@ -661,6 +789,8 @@ public class SshIFile extends IFile {
                                 if (++ chanEnt.idle > 1) {
                                     chanEnt.chan.disconnect ();
                                     itc.remove ();
+                                    countChannels (session, -1);
+                                    channelPool.notifyAll ();
                                 }
                             }
                             if (channelPool.isEmpty ()) {
@@ -675,22 +805,430 @@ public class SshIFile extends IFile {
         }
     }
 
+    /*******************************\
+     *      Batched Operations     *
+    \*******************************/
+
+    /**
+     * Get attributes of a bunch of files from the same session in a couple of round trips
+     * instead of one or two apiece, so isDirectory(), length(), getSymLink() etc don't have to.
+     * Anything that fails is left for those calls to sort out.
+     */
+    public static void fetchAttrs (IFile[] files) throws IOException
+    {
+        if ((files.length == 0) || !(files[0] instanceof SshIFile)) return;
+        SshIFile first = (SshIFile) files[0];
+        ChanEnt chanEnt = first.aboutToUseChannel ();
+        try {
+
+            // lstat whatever we don't have it for
+            ChannelSftp.Batch batch = chanEnt.chan.batch ();
+            LinkedList<SshIFile> sifs = new LinkedList<> ();
+            for (IFile file : files) {
+                SshIFile sif = (SshIFile) file;
+                if (sif.cacheLStat == null) {
+                    batch.lstat (sif.abspath);
+                    sifs.addLast (sif);
+                }
+            }
+            if (!sifs.isEmpty ()) {
+                batch.run ();
+                int i = 0;
+                for (SshIFile sif : sifs) sif.cacheLStat = batch.getAttrs (i ++);
+            }
+
+            // stat and readlink the links
+            batch = chanEnt.chan.batch ();
+            sifs.clear ();
+            for (IFile file : files) {
+                SshIFile sif = (SshIFile) file;
+                if ((sif.cacheLStat != null) && sif.cacheLStat.isLink ()) {
+                    batch.stat (sif.abspath);
+                    batch.readlink (sif.abspath);
+                    sifs.addLast (sif);
+                }
+            }
+            if (!sifs.isEmpty ()) {
+                batch.run ();
+                int i = 0;
+                for (SshIFile sif : sifs) {
+                    sif.cacheStat = batch.getAttrs (i ++);
+                    sif.cacheLink = batch.getLink (i ++);
+                    sif.cacheLinkLStat = sif.cacheLStat;
+                }
+            }
+        } catch (SftpException se) {
+            throw first.new SshLstatException (se);
+        } finally {
+            first.finishedUsingChannel (chanEnt);
+        }
+    }
+
+    /**
+     * Delete a bunch of files from the same session in about one round trip.
+     * They must not be directories.
+     * Throws the first failure, after trying them all.
+     */
+    public static void deleteFiles (List<IFile> files) throws IOException
+    {
+        if (files.isEmpty ()) return;
+        SshIFile first = (SshIFile) files.get (0);
+        ChanEnt chanEnt = first.aboutToUseChannel ();
+        try {
+            ChannelSftp.Batch batch = chanEnt.chan.batch ();
+            for (IFile file : files) {
+                SshIFile sif = (SshIFile) file;
+                sif.cacheLStat = null;
+                sif.cacheStat  = null;
+                batch.rm (sif.abspath);
+            }
+            batch.run ();
+            for (int i = 0; i < files.size (); i ++) {
+                SftpException se = batch.getException (i);
+                if (se != null) throw files.get (i).new SshRmException (se);
+            }
+        } catch (SftpException se) {
+            throw first.new SshRmException (se);
+        } finally {
+            first.finishedUsingChannel (chanEnt);
+        }
+    }
+
+    /*******************************\
+     *     Segmented Download      *
+    \*******************************/
+
+    /**
+     * Download the file in SEGLENGTH segments, up to SEGCHANNELS of them at once
+     * each over its own pooled channel, writing each in place in the output.
+     * Gets around a single channel's window and any per-channel throttling by the server.
+     * @param ranos    = where the data goes, written at the same offsets as in the file
+     * @param length   = length of the file
+     * @param done     = bytes of each segment already in ranos, updated as more are written
+     *                   (synchronize on it to read it while downloading)
+     * @param progress = called every PARTIALUPDATEMILLIS, returns false to stop
+     * @return true: all segments complete; false: stopped early
+     */
+    public boolean getSegmented (RAOutputStream ranos, long length, long[] done, SegmentProgress progress)
+            throws Exception
+    {
+        SegmentGetter getter = new SegmentGetter (ranos, length, done);
+        Thread[] threads = new Thread[Math.min (SEGCHANNELS, done.length)];
+        getter.running = threads.length;
+        try {
+            for (int i = 0; i < threads.length; i ++) {
+                threads[i] = new Thread (getter, "SshIFile segment " + i);
+                threads[i].start ();
+            }
+            while (progress.progress ()) {
+                synchronized (getter) {
+                    if (getter.running == 0) break;
+                    getter.wait (FileUtils.PARTIALUPDATEMILLIS);
+                }
+            }
+        } finally {
+
+            // wait for them all to stop writing to ranos before returning
+            synchronized (getter) {
+                getter.stop = true;
+            }
+            for (Thread thread : threads) {
+                if (thread != null) thread.join ();
+            }
+        }
+        if (getter.exception != null) throw new SftpIOException (getter.exception);
+        synchronized (done) {
+            for (int seg = 0; seg < done.length; seg ++) {
+                if (done[seg] < getter.segLength (seg)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Each thread takes the next unfinished segment and reads it from where it left off.
+     */
+    private class SegmentGetter implements Runnable {
+        public volatile boolean stop;
+        public Exception exception;
+        public int running;
+
+        private int nextseg;
+        private long length;
+        private long[] done;
+        private RAOutputStream ranos;
+
+        public SegmentGetter (RAOutputStream ranos, long length, long[] done)
+        {
+            this.ranos  = ranos;
+            this.length = length;
+            this.done   = done;
+        }
+
+        public long segLength (int seg)
+        {
+            return Math.min (SEGLENGTH, length - seg * SEGLENGTH);
+        }
+
+        private synchronized int nextSegment ()
+        {
+            if (stop) return -1;
+            synchronized (done) {
+                while ((nextseg < done.length) && (done[nextseg] >= segLength (nextseg))) nextseg ++;
+            }
+            return (nextseg < done.length) ? nextseg ++ : -1;
+        }
+
+        @Override
+        public void run ()
+        {
+            ChanEnt chanEnt = null;
+            try {
+                byte[] buf = new byte[32768];
+                int seg;
+                while ((seg = nextSegment ()) >= 0) {
+                    if (chanEnt == null) chanEnt = aboutToUseChannel ();
+                    long pos, end;
+                    synchronized (done) {
+                        pos = seg * SEGLENGTH + done[seg];
+                        end = seg * SEGLENGTH + segLength (seg);
+                    }
+                    InputStream is = chanEnt.chan.get (abspath, null, pos);
+                    try {
+                        while ((pos < end) && !stop) {
+                            int rc = is.read (buf, 0, (int) Math.min (buf.length, end - pos));
+                            if (rc <= 0) throw new EOFException ();
+                            synchronized (ranos) {
+                                ranos.seek (pos);
+                                ranos.write (buf, 0, rc);
+                            }
+                            pos += rc;
+                            synchronized (done) {
+                                done[seg] += rc;
+                            }
+                        }
+                    } finally {
+                        is.close ();
+                    }
+                }
+            } catch (Exception e) {
+                synchronized (this) {
+                    if (exception == null) exception = e;
+                    stop = true;
+                }
+            } finally {
+                if (chanEnt != null) finishedUsingChannel (chanEnt);
+                synchronized (this) {
+                    -- running;
+                    notifyAll ();
+                }
+            }
+        }
+    }
+
+    /*******************************\
+     *       Server-side Copy      *
+    \*******************************/
+
+    /**
+     * See if the other file is on the same host:port as the same user,
+     * so the server can copy between the two without the data coming through here.
+     */
+    public boolean sameServer (SshIFile othr)
+    {
+        return (othr.session == session) ||
+                (othr.session.getHost ().equals (session.getHost ()) &&
+                 (othr.session.getPort () == session.getPort ()) &&
+                 othr.session.getUserName ().equals (session.getUserName ()));
+    }
+
+    /**
+     * See if copyOnServer() can copy the old file to this one.
+     * Uses the copy-data sftp extension if the server has it,
+     * otherwise 'cp' run on the server if there is one.
+     */
+    public boolean canCopyOnServer (SshIFile oldFile) throws IOException
+    {
+        if (!sameServer (oldFile)) return false;
+        if (hasCopyData (oldFile)) return true;
+        synchronized (cpAvailable) {
+            Boolean avail = cpAvailable.get (session);
+            if (avail == null) {
+                try {
+                    avail = runCommand ("command -v cp", null) == 0;
+                } catch (Exception e) {
+                    Log.d (TAG, "canCopyOnServer() cp probe exception", e);
+                    avail = false;
+                }
+                Log.d (TAG, "cp " + (avail ? "" : "not ") + "available on " + session.getHost ());
+                cpAvailable.put (session, avail);
+            }
+            return avail;
+        }
+    }
+
+    private boolean hasCopyData (SshIFile oldFile) throws IOException
+    {
+        if (oldFile.session != session) return false;
+        ChanEnt chanEnt = aboutToUseChannel ();
+        try {
+            return "1".equals (chanEnt.chan.getExtension ("copy-data"));
+        } finally {
+            finishedUsingChannel (chanEnt);
+        }
+    }
+
+    /**
+     * Have the server copy the old file to this one.
+     * Only call if canCopyOnServer() says it can.
+     * @param oldFile  = file to copy from
+     * @param skip     = this many bytes are already copied (copy-data only, 'cp' always starts over)
+     * @param progress = told how many bytes are copied as the copy goes, returns false to stop
+     * @return true: copy complete; false: stopped early
+     */
+    public boolean copyOnServer (SshIFile oldFile, long skip, final CopyProgress progress)
+            throws Exception
+    {
+        cacheLStat = null;
+        cacheStat  = null;
+
+        if (hasCopyData (oldFile)) {
+            final boolean[] stopped = new boolean[1];
+            ChanEnt chanEnt = aboutToUseChannel ();
+            try {
+                chanEnt.chan.copy (oldFile.abspath, abspath, new SftpProgressMonitor () {
+                    private long sofar;
+
+                    @Override
+                    public void init (int op, String src, String dest, long max) { }
+
+                    @Override
+                    public boolean count (long count)
+                    {
+                        sofar += count;
+                        try {
+                            stopped[0] = !progress.progress (sofar);
+                        } catch (Exception e) {
+                            Log.w (TAG, "copyOnServer() progress exception", e);
+                            stopped[0] = true;
+                        }
+                        return !stopped[0];
+                    }
+
+                    @Override
+                    public void end () { }
+                }, skip);
+            } catch (SftpException se) {
+                throw new SshCopyException (se);
+            } finally {
+                finishedUsingChannel (chanEnt);
+            }
+            return !stopped[0];
+        }
+
+        // no copy-data, run 'cp' on the server and watch the new file grow
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream ();
+        ChannelExec chan = startCommand ("cp -- " + quote (oldFile.abspath) + " " + quote (abspath), stderr);
+        try {
+            while (!chan.isClosed ()) {
+                Thread.sleep (CPPOLLMILLIS);
+                ChanEnt chanEnt = aboutToUseChannel ();
+                try {
+                    SftpATTRS attrs = getStat (chanEnt, abspath);
+                    if (!progress.progress ((attrs == null) ? 0 : attrs.getSize ())) {
+                        try { chan.sendSignal ("TERM"); } catch (Exception ignored) { }
+                        return false;
+                    }
+                } finally {
+                    finishedUsingChannel (chanEnt);
+                }
+            }
+            if (chan.getExitStatus () != 0) {
+                throw new SshCopyException (new IOException (
+                        "cp exit status " + chan.getExitStatus () + ": " + stderr.toString ().trim ()));
+            }
+            return true;
+        } finally {
+            finishedUsingExecChannel (chan);
+        }
+    }
+
+    /**
+     * Run a command on the server and wait for it to finish.
+     * @return its exit status
+     */
+    private int runCommand (String command, ByteArrayOutputStream stderr) throws Exception
+    {
+        ChannelExec chan = startCommand (command, stderr);
+        try {
+            while (!chan.isClosed ()) Thread.sleep (50);
+            return chan.getExitStatus ();
+        } finally {
+            finishedUsingExecChannel (chan);
+        }
+    }
+
+    private ChannelExec startCommand (String command, ByteArrayOutputStream stderr) throws IOException
+    {
+        aboutToUseExecChannel ();
+        ChannelExec chan = null;
+        try {
+            chan = (ChannelExec) session.openChannel ("exec");
+            chan.setCommand (command);
+            chan.setInputStream (null);
+            chan.setOutputStream (new ByteArrayOutputStream ());
+            chan.setErrStream ((stderr != null) ? stderr : new ByteArrayOutputStream ());
+            chan.connect ();
+            return chan;
+        } catch (JSchException je) {
+            finishedUsingExecChannel (chan);
+            throw new SshOpenException (je);
+        }
+    }
+
+    // quote for the shell, 'it'\''s' for it's
+    private static String quote (String str)
+    {
+        return "'" + str.replace ("'", "'\\''") + "'";
+    }
+
     /*******************************\
      *   Input and Output Streams  *
     \*******************************/
 
+    /**
+     * Reads the file in RABLOCKSIZE blocks over a handle that stays open, keeping the last
+     * RACACHEBLOCKS of them, so jumping around the file like ZipFile does only costs a round
+     * trip for blocks it hasn't seen lately.  Each miss that follows on from the last one
+     * reads twice as many blocks ahead, and once it gets to RASTREAMAHEAD blocks the reads
+     * look sequential so it switches to a streaming get() until the next jump.
+     */
     private class SshRAIStream extends RAInputStream {
         private byte[] bbuf = new byte[1];
         private ChanEnt chanEnt;
-        private InputStream wrapped;
+        private ChannelSftp.RandomReader reader;
+        private InputStream streaming;  // sequential get() stream, null if reading blocks
+        private long streampos;         // where streaming is at in the file
+        private int ahead;              // blocks to read on next sequential miss
+        private long nextseq;           // block that would be a sequential miss
+        private LinkedHashMap<Long,byte[]> cache;
         private long markpos;
         private long position;
 
         public SshRAIStream (ChanEnt ce) throws SftpException
         {
             chanEnt  = ce;
-            wrapped  = ce.chan.get (abspath);
+            reader   = ce.chan.openRandomReader (abspath);
             position = 0;
+            ahead    = 1;
+            nextseq  = 0;
+            cache    = new LinkedHashMap<Long,byte[]> (RACACHEBLOCKS * 2, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry (Map.Entry<Long,byte[]> eldest)
+                {
+                    return size () > RACACHEBLOCKS;
+                }
+            };
         }
 
         // RAInputStream
@@ -717,20 +1255,8 @@ public class SshIFile extends IFile {
 
         public void seek (long pos) throws IOException
         {
-            while ((pos > position) && (pos <= position + 4096)) {
-                long rc = wrapped.skip (pos - position);
-                position += rc;
-            }
-            if (pos != position) {
-                wrapped.close ();
-                wrapped = null;
-                try {
-                    wrapped = chanEnt.chan.get (abspath, null, pos);
-                } catch (SftpException se) {
-                    throw new SftpIOException (se);
-                }
-                position = pos;
-            }
+            if (pos < 0) throw new IOException ("negative seek");
+            position = pos;
         }
 
         public long tell ()
@@ -749,21 +1275,116 @@ public class SshIFile extends IFile {
 
         public int read (@NonNull byte[] buffer, int offset, int count) throws IOException
         {
-            int rc = wrapped.read (buffer, offset, count);
-            if (rc > 0) position += rc;
+            if (count <= 0) return 0;
+
+            // keep streaming if still reading along from where the stream is at,
+            // skipping a little if need be, otherwise go back to reading blocks
+            if (streaming != null) {
+                while ((position > streampos) && (position <= streampos + RABLOCKSIZE)) {
+                    long rc = streaming.skip (position - streampos);
+                    if (rc <= 0) break;
+                    streampos += rc;
+                }
+                if (position == streampos) {
+                    int rc = streaming.read (buffer, offset, count);
+                    if (rc > 0) {
+                        position  += rc;
+                        streampos += rc;
+                    }
+                    return rc;
+                }
+                stopStreaming ();
+            }
+
+            long blk = position / RABLOCKSIZE;
+            int  ofs = (int) (position % RABLOCKSIZE);
+            byte[] block = cache.get (blk);
+            if (block == null) {
+                if (blk != nextseq) {
+                    ahead = 1;
+                } else if (ahead >= RASTREAMAHEAD) {
+                    startStreaming ();
+                    return read (buffer, offset, count);
+                }
+                block = readBlocks (blk);
+            }
+            if (ofs >= block.length) return -1;
+            int rc = Math.min (count, block.length - ofs);
+            System.arraycopy (block, ofs, buffer, offset, rc);
+            position += rc;
             return rc;
         }
 
+        /**
+         * Read the given block and however many after it are due to be read ahead,
+         * up to one that is already cached, all in one go.
+         * @return the given block, shorter than RABLOCKSIZE (maybe empty) at end of file
+         */
+        private byte[] readBlocks (long blk) throws IOException
+        {
+            int nblks = 1;
+            while ((nblks < ahead) && !cache.containsKey (blk + nblks)) nblks ++;
+
+            byte[] data = new byte[nblks*RABLOCKSIZE];
+            int len;
+            try {
+                len = reader.read (blk * RABLOCKSIZE, data, 0, data.length);
+            } catch (SftpException se) {
+                throw new SftpIOException (se);
+            }
+            if (len < 0) len = 0;
+
+            byte[] first = null;
+            for (int i = 0; i < nblks; i ++) {
+                int beg = i * RABLOCKSIZE;
+                if ((i > 0) && (beg >= len)) break;
+                byte[] block = Arrays.copyOfRange (data, beg, Math.min (beg + RABLOCKSIZE, Math.max (beg, len)));
+                cache.put (blk + i, block);
+                if (i == 0) first = block;
+            }
+            nextseq = blk + nblks;
+            ahead   = Math.min (ahead * 2, RASTREAMAHEAD);
+            return first;
+        }
+
+        private void startStreaming () throws IOException
+        {
+            try {
+                reader.close ();
+                reader = null;
+                streaming = chanEnt.chan.get (abspath, null, position);
+            } catch (SftpException se) {
+                throw new SftpIOException (se);
+            }
+            streampos = position;
+        }
+
+        private void stopStreaming () throws IOException
+        {
+            streaming.close ();
+            streaming = null;
+            try {
+                reader = chanEnt.chan.openRandomReader (abspath);
+            } catch (SftpException se) {
+                throw new SftpIOException (se);
+            }
+            ahead = 1;
+        }
+
         public void close () throws IOException
         {
             synchronized (this) {
-                if (wrapped != null) {
+                if (chanEnt != null) {
                     try {
-                        wrapped.close ();
+                        if (streaming != null) streaming.close ();
+                        if (reader != null) reader.close ();
+                    } catch (SftpException se) {
+                        throw new SftpIOException (se);
                     } finally {
                         finishedUsingChannel (chanEnt);
-                        chanEnt = null;
-                        wrapped = null;
+                        chanEnt   = null;
+                        streaming = null;
+                        reader    = null;
                     }
                 }
             }
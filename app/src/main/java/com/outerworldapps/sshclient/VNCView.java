@@ -54,6 +54,7 @@ import android.widget.TextView;
 import com.jcraft.jsch.DirectTCPIPTunnel;
 import com.jcraft.jsch.Session;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.EOFException;
@@ -1185,7 +1186,15 @@ public class VNCView extends KeyboardableView implements SshClient.HasMainMenu {
             // if first time for this connection, open unzipping stream
             if (zrleis == null) zrleis = new ZRLEInputStream ();
             zrleis.remaining = ReadU32 ();
-            if (gzipis == null) gzipis = new com.jcraft.jzlib.InflaterInputStream (zrleis);
+            if (gzipis == null) {
+                if (sshclient.getSettings ().nat_zlib.GetValue ()) {
+                    // platform zlib, buffered so ReadU8() doesn't make a JNI call per byte
+                    gzipis = new BufferedInputStream (new java.util.zip.InflaterInputStream (
+                            zrleis, new java.util.zip.Inflater (), 4096), 4096);
+                } else {
+                    gzipis = new com.jcraft.jzlib.InflaterInputStream (zrleis);
+                }
+            }
 
             //Log.d (TAG, "FU_ZRLE*: starting");
 
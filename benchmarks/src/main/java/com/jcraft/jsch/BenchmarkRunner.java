@@ -0,0 +1,52 @@
+package com.jcraft.jsch;
+
+import java.util.Vector;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH entry point.  Takes the usual JMH command line; unless -p says
+ * otherwise, cipher and mac params are filled with every algorithm in
+ * JSch.config (cipher.s2c, mac.s2c) that can be instantiated here.
+ */
+public class BenchmarkRunner{
+
+  public static void main(String[] args) throws Exception{
+    CommandLineOptions cmd=new CommandLineOptions(args);
+    if(cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams() ||
+       cmd.shouldListProfilers() || cmd.shouldListResultFormats()){
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+
+    ChainedOptionsBuilder opt=new OptionsBuilder().parent(cmd);
+    if(!cmd.getParameter("cipher").hasValue()){
+      opt.param("cipher", available(JSch.getConfig("cipher.s2c"), true));
+    }
+    if(!cmd.getParameter("mac").hasValue()){
+      opt.param("mac", available(JSch.getConfig("mac.s2c"), false));
+    }
+    new Runner(opt.build()).run();
+  }
+
+  private static String[] available(String list, boolean cipher){
+    Vector result=new Vector();
+    String[] names=Util.split(list, ",");
+    for(int i=0; i<names.length; i++){
+      String clazz=JSch.getConfig(names[i]);
+      if(clazz==null) continue;
+      if(cipher && !Session.checkCipher(clazz)) continue;
+      if(!cipher){
+        try{ Class.forName(clazz).newInstance(); }
+        catch(Exception e){ continue; }
+      }
+      result.addElement(names[i]);
+    }
+    String[] foo=new String[result.size()];
+    result.copyInto(foo);
+    return foo;
+  }
+}
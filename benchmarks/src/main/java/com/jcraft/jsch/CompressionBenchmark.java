@@ -0,0 +1,100 @@
+package com.jcraft.jsch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The "zlib" Compression alone, per packet of TransportBenchmark.sample():
+ * impl=jcraft is jzlib, impl=jce java.util.zip.  compress deflates one
+ * payload, roundTrip deflates it and inflates it again, so inflate costs
+ * roundTrip minus compress.  The score is ns/packet, the :bytes counter ns
+ * per payload byte.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class CompressionBenchmark{
+
+  static final int START=5;     // packet length + padding length
+
+  @Param({"jcraft", "jce"})
+  public String impl;
+
+  @Param({"6"})
+  public int level;
+
+  @Param({"1024", "32768"})
+  public int size;
+
+  private Compression deflater;
+  private Compression inflater;
+  private byte[] payload;
+  private byte[] buf;
+  private byte[] rbuf;
+  private int[] len=new int[1];
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception{
+    String name="com.jcraft.jsch."+impl+".Compression";
+    deflater=(Compression)Class.forName(name).newInstance();
+    deflater.init(Compression.DEFLATER, level);
+    inflater=(Compression)Class.forName(name).newInstance();
+    inflater.init(Compression.INFLATER, 0);
+    payload=TransportBenchmark.sample(size);
+    buf=new byte[START+size+Session.buffer_margin];
+    rbuf=new byte[buf.length];
+    int n=compress();
+    System.out.println("\n"+impl+" level "+level+": "+size+" -> "+
+                       (n-START)+" bytes");
+    // the first packet carries the zlib header
+    if(uncompress(n)!=size){
+      throw new IllegalStateException("inflated size");
+    }
+  }
+
+  @Benchmark
+  public int compress(TransportBenchmark.Payload counter){
+    counter.bytes+=size;
+    return compress();
+  }
+
+  @Benchmark
+  public int roundTrip(TransportBenchmark.Payload counter){
+    counter.bytes+=size;
+    return uncompress(compress());
+  }
+
+  private int compress(){
+    System.arraycopy(payload, 0, buf, START, size);
+    len[0]=START+size;
+    buf=deflater.compress(buf, START, len);
+    return len[0];
+  }
+
+  // what Session.read() does with a packet from compress()
+  private int uncompress(int n){
+    n-=START;
+    if(rbuf.length<START+n){
+      rbuf=new byte[START+n];
+    }
+    System.arraycopy(buf, START, rbuf, START, n);
+    len[0]=n;
+    rbuf=inflater.uncompress(rbuf, START, len);
+    return len[0];
+  }
+}
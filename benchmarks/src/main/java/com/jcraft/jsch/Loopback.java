@@ -0,0 +1,169 @@
+package com.jcraft.jsch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+
+/**
+ * In-memory, single threaded byte queue used as the socket of a benchmark
+ * Session.  Whatever is written to out can be read back from in.
+ */
+class Loopback{
+  private byte[] data=new byte[256*1024];
+  private int head=0;
+  private int tail=0;
+  private boolean discard;
+
+  final InputStream in=new InputStream(){
+      public int read() throws IOException{
+        if(head==tail) return -1;
+        return data[head++]&0xff;
+      }
+      public int read(byte[] b, int off, int len) throws IOException{
+        int n=tail-head;
+        if(n==0) return -1;
+        if(n>len) n=len;
+        System.arraycopy(data, head, b, off, n);
+        head+=n;
+        return n;
+      }
+      public int available(){
+        return tail-head;
+      }
+    };
+
+  final OutputStream out=new OutputStream(){
+      public void write(int b) throws IOException{
+        if(discard) return;
+        ensure(1);
+        data[tail++]=(byte)b;
+      }
+      public void write(byte[] b, int off, int len) throws IOException{
+        if(discard) return;
+        ensure(len);
+        System.arraycopy(b, off, data, tail, len);
+        tail+=len;
+      }
+    };
+
+  /**
+   * @param discard true to drop everything written, for encode-only runs
+   */
+  Loopback(boolean discard){
+    this.discard=discard;
+  }
+
+  private void ensure(int len){
+    if(head==tail){
+      head=tail=0;
+    }
+    if(tail+len<=data.length) return;
+    if(head>0){
+      System.arraycopy(data, head, data, 0, tail-head);
+      tail-=head;
+      head=0;
+    }
+    if(tail+len>data.length){
+      byte[] foo=new byte[(tail+len)*2];
+      System.arraycopy(data, 0, foo, 0, tail);
+      data=foo;
+    }
+  }
+
+  /**
+   * Creates a Session whose transport runs over this loopback, keyed so that
+   * what it encodes with the c2s algorithms it can read back with the s2c
+   * ones.  Any of cipher, mac, compression may be "none"; mac is ignored
+   * for an AEAD cipher.
+   */
+  Session newSession(String cipher, String mac, String compression) throws Exception{
+    JSch jsch=new JSch();
+    Session session=new Session(jsch, "bench", "127.0.0.1", 22);
+    if(Session.random==null){
+      Session.random=(Random)Class.forName(JSch.getConfig("random")).newInstance();
+    }
+
+    IO io=new IO();
+    io.setInputStream(in);
+    io.setOutputStream(out);
+    io.setWriteBuffer(Integer.parseInt(JSch.getConfig("write_buffer_size")),
+                      Integer.parseInt(JSch.getConfig("write_buffer_delay")));
+    set(session, "io", io);
+
+    if(!cipher.equals("none")){
+      set(session, "c2scipher", newCipher(cipher, Cipher.ENCRYPT_MODE));
+      set(session, "s2ccipher", newCipher(cipher, Cipher.DECRYPT_MODE));
+      set(session, "c2scipher_size", ((Cipher)get(session, "c2scipher")).getIVSize());
+      set(session, "s2ccipher_size", ((Cipher)get(session, "s2ccipher")).getIVSize());
+      if(get(session, "c2scipher") instanceof AEADCipher){
+        set(session, "c2saead", get(session, "c2scipher"));
+        set(session, "s2caead", get(session, "s2ccipher"));
+        mac="none";
+      }
+    }
+
+    if(!mac.equals("none")){
+      MAC c2smac=newMAC(mac);
+      MAC s2cmac=newMAC(mac);
+      set(session, "c2smac", c2smac);
+      set(session, "s2cmac", s2cmac);
+      set(session, "s2cmac_result1", new byte[s2cmac.getBlockSize()]);
+      set(session, "s2cmac_result2", new byte[s2cmac.getBlockSize()]);
+      if(mac.endsWith("-etm@openssh.com")){
+        set(session, "c2setm", true);
+        set(session, "s2cetm", true);
+      }
+    }
+
+    if(!compression.equals("none")){
+      Compression deflater=(Compression)Class.forName(JSch.getConfig(compression)).newInstance();
+      String level=JSch.getConfig("compression_level");
+      if(level.equals("adaptive")){
+        deflater.init(Compression.DEFLATER, 6);
+        set(session, "tuner", new CompressionTuner(6));
+        ((CompressionStats)get(session, "deflateStats")).level=6;
+      }
+      else{
+        deflater.init(Compression.DEFLATER, Integer.parseInt(level));
+      }
+      Compression inflater=(Compression)Class.forName(JSch.getConfig(compression)).newInstance();
+      inflater.init(Compression.INFLATER, 0);
+      set(session, "deflater", deflater);
+      set(session, "inflater", inflater);
+    }
+
+    return session;
+  }
+
+  private static Cipher newCipher(String name, int mode) throws Exception{
+    Cipher c=(Cipher)Class.forName(JSch.getConfig(name)).newInstance();
+    byte[] key=new byte[c.getBlockSize()];
+    byte[] iv=new byte[c.getIVSize()];
+    for(int i=0; i<key.length; i++) key[i]=(byte)i;
+    for(int i=0; i<iv.length; i++) iv[i]=(byte)(0x80+i);
+    c.init(mode, key, iv);
+    return c;
+  }
+
+  private static MAC newMAC(String name) throws Exception{
+    MAC m=(MAC)Class.forName(JSch.getConfig(name)).newInstance();
+    // at least a hash output long, like Session.updateKeys() hands out
+    byte[] key=new byte[Math.max(m.getBlockSize(), 32)];
+    for(int i=0; i<key.length; i++) key[i]=(byte)(0x40+i);
+    m.init(key);
+    return m;
+  }
+
+  private static Field field(String name) throws Exception{
+    Field f=Session.class.getDeclaredField(name);
+    f.setAccessible(true);
+    return f;
+  }
+  private static void set(Session session, String name, Object value) throws Exception{
+    field(name).set(session, value);
+  }
+  private static Object get(Session session, String name) throws Exception{
+    return field(name).get(session);
+  }
+}
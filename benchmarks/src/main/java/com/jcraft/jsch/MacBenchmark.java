@@ -0,0 +1,62 @@
+package com.jcraft.jsch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one MAC computation the way Session.encode() does it: sequence
+ * number, packet, tag.  The score is ns/packet, the :bytes counter is ns per
+ * packet byte.  The -etm@openssh.com names use the same classes as the
+ * plain ones, so only one of each pair needs to be looked at; what etm
+ * changes is measured by TransportBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class MacBenchmark{
+
+  @Param({"hmac-sha1"})
+  public String mac;
+
+  @Param({"64", "1024", "32768"})
+  public int size;
+
+  private MAC m;
+  private byte[] packet;
+  private byte[] tag;
+  private int seq;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception{
+    m=(MAC)Class.forName(JSch.getConfig(mac)).newInstance();
+    byte[] key=new byte[32];
+    for(int i=0; i<key.length; i++) key[i]=(byte)(0x40+i);
+    m.init(key);
+    packet=TransportBenchmark.sample(size);
+    tag=new byte[m.getBlockSize()];
+  }
+
+  @Benchmark
+  public byte[] mac(TransportBenchmark.Payload counter) throws Exception{
+    m.update(seq++);
+    m.update(packet, 0, size);
+    m.doFinal(tag, 0);
+    counter.bytes+=size;
+    return tag;
+  }
+}
@@ -0,0 +1,67 @@
+package com.jcraft.jsch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Host and user key signatures: verify is what the client pays for the
+ * server's host key on every key exchange, sign what publickey
+ * authentication pays, generate what the key pair menu does.  The data is
+ * the size of an exchange hash.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class SignatureBenchmark{
+
+  @Param({"ssh-ed25519", "ecdsa-sha2-nistp256", "ssh-rsa"})
+  public String key;
+
+  private JSch jsch=new JSch();
+  private int type;
+  private int size;
+  private KeyPair kpair;
+  private byte[] data=new byte[32];
+  private byte[] sig;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception{
+    if(key.equals("ssh-ed25519")){ type=KeyPair.ED25519; size=256; }
+    else if(key.startsWith("ecdsa")){ type=KeyPair.ECDSA; size=256; }
+    else{ type=KeyPair.RSA; size=2048; }
+    kpair=KeyPair.genKeyPair(jsch, type, size);
+    sig=kpair.getSignature(data);
+  }
+
+  @Benchmark
+  public byte[] sign(){
+    return kpair.getSignature(data);
+  }
+
+  @Benchmark
+  public boolean verify() throws Exception{
+    Signature v=kpair.getVerifier();
+    v.update(data);
+    return v.verify(sig);
+  }
+
+  @Benchmark
+  public KeyPair generate() throws Exception{
+    return KeyPair.genKeyPair(jsch, type, size);
+  }
+}
@@ -0,0 +1,125 @@
+package com.jcraft.jsch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-packet cost of the SSH transport: Session.write() (encode + IO.put)
+ * and Session.read() for SSH_MSG_CHANNEL_DATA packets, over a Loopback.
+ *
+ * encode measures the outbound path alone, roundTrip writes one packet and
+ * reads it back, so the inbound cost is roundTrip minus encode.  One
+ * operation is one packet: the score is ns/packet, the :bytes counter is ns
+ * per payload byte (1000/x is MB/s) and -prof gc gives gc.alloc.rate.norm in
+ * bytes allocated per packet.
+ *
+ * cipher and mac default to everything in JSch.config (cipher.s2c, mac.s2c)
+ * when started through BenchmarkRunner; mac does not matter for the AEAD
+ * ciphers.  To see how a device without AES and SHA instructions would
+ * fare, add -jvmArgsAppend "-XX:+UnlockDiagnosticVMOptions
+ * -XX:-UseAESIntrinsics -XX:-UseAESCTRIntrinsics -XX:-UseSHA1Intrinsics
+ * -XX:-UseSHA256Intrinsics".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class TransportBenchmark{
+
+  @Param({"aes128-ctr"})
+  public String cipher;
+
+  @Param({"hmac-sha1"})
+  public String mac;
+
+  @Param({"none", "zlib"})
+  public String compression;
+
+  @Param({"1024", "32768"})
+  public int size;
+
+  private Session loop;
+  private Session sink;
+  private Buffer rbuf;
+  private Buffer wbuf;
+  private Packet wpacket;
+  private byte[] payload;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception{
+    loop=new Loopback(false).newSession(cipher, mac, compression);
+    sink=new Loopback(true).newSession(cipher, mac, compression);
+    rbuf=new Buffer();
+    wbuf=new Buffer(size+64+Session.buffer_margin);
+    wpacket=new Packet(wbuf);
+    payload=sample(size);
+  }
+
+  /**
+   * Counts payload bytes, so JMH reports the time per payload byte.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Payload{
+    public long bytes;
+    @Setup(Level.Iteration)
+    public void clear(){ bytes=0; }
+  }
+
+  @Benchmark
+  public Buffer encode(Payload counter) throws Exception{
+    fill();
+    sink.write(wpacket);
+    counter.bytes+=size;
+    return wbuf;
+  }
+
+  @Benchmark
+  public Buffer roundTrip(Payload counter) throws Exception{
+    fill();
+    loop.write(wpacket);
+    rbuf=loop.read(rbuf);
+    counter.bytes+=size;
+    return rbuf;
+  }
+
+  // what ChannelSftp/Channel output streams hand to Session.write()
+  private void fill(){
+    wpacket.reset();
+    wbuf.putByte((byte)Session.SSH_MSG_CHANNEL_DATA);
+    wbuf.putInt(0);
+    wbuf.putString(payload);
+  }
+
+  /**
+   * Log-like text with some random digits, so compression does real work
+   * but does not collapse the packet to nothing.
+   */
+  static byte[] sample(int size){
+    java.util.Random r=new java.util.Random(size);
+    byte[] foo=new byte[size];
+    byte[] line=Util.str2byte("2018-06-01 12:00:00 INFO  sftp-server: read handle 0 offset ");
+    int i=0;
+    while(i<size){
+      for(int j=0; j<line.length && i<size; j++) foo[i++]=line[j];
+      for(int j=0; j<12 && i<size; j++) foo[i++]=(byte)('0'+r.nextInt(10));
+      if(i<size) foo[i++]=(byte)'\n';
+    }
+    return foo;
+  }
+}
@@ -0,0 +1,152 @@
+package com.jcraft.jzlib;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * jzlib deflate over a 256KB corpus, fed in 32KB pieces with
+ * Z_PARTIAL_FLUSH the way jcraft.Compression does for SSH packets.
+ * impl=plain is the straight zlib port (Deflate.plain), impl=fast the
+ * 8-byte match compare and the level 1 quick path.  Levels 2-9 give the
+ * same output either way; level 1 trades a little size, and the setup
+ * prints the compressed size of each combination.  The score is ns per
+ * corpus, the :bytes counter ns per input byte.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class DeflateBenchmark{
+
+  static final int SIZE=256*1024;
+  static final int CHUNK=32*1024;
+
+  @Param({"plain", "fast"})
+  public String impl;
+
+  @Param({"1", "6"})
+  public int level;
+
+  @Param({"text", "binary", "random"})
+  public String corpus;
+
+  private byte[] input;
+  private byte[] output;
+  private ZStream z;
+
+  @Setup(Level.Trial)
+  public void setup(){
+    input=corpus(corpus, SIZE);
+    output=new byte[SIZE+SIZE/8+1024];
+    System.out.println("\n"+impl+" level "+level+" "+corpus+": "+
+                       SIZE+" -> "+deflate()+" bytes");
+  }
+
+  /**
+   * Counts input bytes, so JMH reports the time per input byte.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Input{
+    public long bytes;
+    @Setup(Level.Iteration)
+    public void clear(){ bytes=0; }
+  }
+
+  @Benchmark
+  public int deflate(Input counter){
+    counter.bytes+=SIZE;
+    return deflate();
+  }
+
+  private int deflate(){
+    Deflate.plain=impl.equals("plain");
+    z=new ZStream();
+    z.deflateInit(level);
+    Deflate.plain=false;
+    z.next_out=output;
+    z.next_out_index=0;
+    z.avail_out=output.length;
+    for(int i=0; i<SIZE; i+=CHUNK){
+      z.next_in=input;
+      z.next_in_index=i;
+      z.avail_in=CHUNK;
+      z.deflate(JZlib.Z_PARTIAL_FLUSH);
+    }
+    z.deflateEnd();
+    return z.next_out_index;
+  }
+
+  /**
+   * text is English-like prose plus log lines, binary is fixed-size records
+   * of small counters, offsets and flags, random does not compress at all.
+   */
+  static byte[] corpus(String kind, int size){
+    Random r=new Random(size);
+    byte[] foo=new byte[size];
+    if(kind.equals("random")){
+      r.nextBytes(foo);
+    }
+    else if(kind.equals("binary")){
+      int t=0;
+      for(int i=0; i+16<=size; i+=16){
+        t+=r.nextInt(1000);
+        putInt(foo, i, t);
+        putInt(foo, i+4, r.nextInt(64)*512);
+        putInt(foo, i+8, 0x10000+r.nextInt(20));
+        putInt(foo, i+12, r.nextInt(4)==0 ? r.nextInt() : 0x81a4);
+      }
+    }
+    else{
+      String[] words=("the of and to in is that for it as was with be by on "+
+                      "not he this are or his from at which but have an had "+
+                      "they you were their one all we can her has there been "+
+                      "session channel packet window buffer server client "+
+                      "read write open close handle offset length file").split(" ");
+      int i=0;
+      while(i<size){
+        String line;
+        if(r.nextInt(4)==0){
+          line="2018-06-01 12:"+(10+r.nextInt(50))+":"+(10+r.nextInt(50))+
+               " INFO sshd["+(1000+r.nextInt(9000))+"]: "+
+               words[r.nextInt(words.length)]+" "+r.nextInt(100000)+"\n";
+        }
+        else{
+          StringBuilder sb=new StringBuilder();
+          int n=5+r.nextInt(12);
+          for(int j=0; j<n; j++){
+            // low indexes come up more often, as in real text
+            int w=r.nextInt(1+r.nextInt(words.length));
+            sb.append(words[w]).append(j==n-1 ? ".\n" : " ");
+          }
+          line=sb.toString();
+        }
+        for(int j=0; j<line.length() && i<size; j++){
+          foo[i++]=(byte)line.charAt(j);
+        }
+      }
+    }
+    return foo;
+  }
+
+  private static void putInt(byte[] foo, int i, int v){
+    foo[i]=(byte)v; foo[i+1]=(byte)(v>>>8);
+    foo[i+2]=(byte)(v>>>16); foo[i+3]=(byte)(v>>>24);
+  }
+}
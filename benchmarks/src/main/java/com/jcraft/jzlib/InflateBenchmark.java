@@ -0,0 +1,89 @@
+package com.jcraft.jzlib;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * jzlib inflate of DeflateBenchmark's corpora, deflated at level 6 in 32KB
+ * partial flushes, into a 32KB output buffer.  impl=plain is the zlib 1.1
+ * inflate_fast (InfCodes.plain), impl=fast inflate_fast64.  The score is
+ * ns per corpus, the :bytes counter ns per inflated byte.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class InflateBenchmark{
+
+  static final int SIZE=DeflateBenchmark.SIZE;
+  static final int CHUNK=DeflateBenchmark.CHUNK;
+
+  @Param({"plain", "fast"})
+  public String impl;
+
+  @Param({"text", "binary", "random"})
+  public String corpus;
+
+  private byte[] input;
+  private int inlen;
+  private byte[] output=new byte[CHUNK];
+
+  @Setup(Level.Trial)
+  public void setup(){
+    byte[] foo=DeflateBenchmark.corpus(corpus, SIZE);
+    input=new byte[SIZE+SIZE/8+1024];
+    ZStream z=new ZStream();
+    z.deflateInit(6);
+    z.next_out=input;
+    z.next_out_index=0;
+    z.avail_out=input.length;
+    for(int i=0; i<SIZE; i+=CHUNK){
+      z.next_in=foo;
+      z.next_in_index=i;
+      z.avail_in=CHUNK;
+      z.deflate(JZlib.Z_PARTIAL_FLUSH);
+    }
+    inlen=z.next_out_index;
+    if(inflate()!=SIZE){
+      throw new IllegalStateException("inflated size");
+    }
+  }
+
+  @Benchmark
+  public long inflate(DeflateBenchmark.Input counter){
+    counter.bytes+=SIZE;
+    return inflate();
+  }
+
+  private long inflate(){
+    InfCodes.plain=impl.equals("plain");
+    ZStream z=new ZStream();
+    z.inflateInit();
+    z.next_in=input;
+    z.next_in_index=0;
+    z.avail_in=inlen;
+    do{
+      z.next_out=output;
+      z.next_out_index=0;
+      z.avail_out=CHUNK;
+      z.inflate(JZlib.Z_PARTIAL_FLUSH);
+    }
+    while(z.avail_out==0);
+    InfCodes.plain=false;
+    return z.total_out;
+  }
+}